@@ -0,0 +1,176 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.tedygabrielmoisa.authenticationserver.authentication.encoders.ExecutorPasswordEncoder;
+import org.tedygabrielmoisa.authenticationserver.authentication.encoders.PasswordHashingRejectedException;
+import org.tedygabrielmoisa.authenticationserver.enums.SigningKeyState;
+
+import java.security.Key;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares how many concurrent logins the platform thread and the virtual thread configurations sustain.
+ * <p>
+ * Each operation starts a wave of {@code concurrency} simulated logins at once and waits for all of them. A login runs
+ * the blocking profile of a single-factor {@code /auth/login}: the principal query, the password check on the bounded
+ * hashing executor, the user query, then the token minting. The OTP and outbox writes of the second factor are left
+ * out. Queries hold one of the pooled connections for {@code queryMillis}. The platform configuration mirrors
+ * Tomcat's defaults, 200 threads and 100 accepted connections waiting, the virtual one starts a virtual thread per
+ * login. The highest concurrency without rejected logins and within the latency budget is the sustainable one.
+ * <p>
+ * Run with {@code ./gradlew -PjavaVersion=21 jmh}: the virtual configuration needs Java 21.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoginConcurrencyBenchmark {
+
+    private static final String SUBJECT = "benchmark.user@example.com";
+    private static final String PASSWORD = "benchmark-password";
+    private static final int TOMCAT_MAX_THREADS = 200;
+    private static final int TOMCAT_ACCEPT_COUNT = 100;
+    private static final int BCRYPT_COST = 4;
+
+    @Param({"platform", "virtual"})
+    public String threading;
+
+    @Param({"100", "400", "1600", "6400"})
+    public int concurrency;
+
+    @Param({"10"})
+    public int connections;
+
+    @Param({"5"})
+    public long queryMillis;
+
+    @Param({"64"})
+    public int hashQueueCapacity;
+
+    private Executor requestExecutor;
+    private Semaphore connectionPool;
+    private ExecutorPasswordEncoder passwordEncoder;
+    private String passwordHash;
+    private JwtSigningKey signingKey;
+    private JwtTokenMinter minter;
+
+    /**
+     * The outcomes of the logins, reported next to the wave latency.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes {
+        public long completed;
+        public long rejected;
+    }
+
+    @Setup
+    public void setUp() {
+        if (threading.equals("virtual")) {
+            try {
+                requestExecutor = new VirtualThreadTaskExecutor("login-");
+            } catch (UnsupportedOperationException e) {
+                throw new IllegalStateException("The virtual configuration needs Java 21, run with -PjavaVersion=21", e);
+            }
+        } else {
+            requestExecutor = new ThreadPoolExecutor(
+                    TOMCAT_MAX_THREADS,
+                    TOMCAT_MAX_THREADS,
+                    0,
+                    TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(TOMCAT_ACCEPT_COUNT),
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        connectionPool = new Semaphore(connections, true);
+
+        BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(BCRYPT_COST);
+        passwordHash = bcrypt.encode(PASSWORD);
+        passwordEncoder = new ExecutorPasswordEncoder(bcrypt, 0, hashQueueCapacity, new SimpleMeterRegistry());
+
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        Key key = Keys.hmacShaKeyFor(secret);
+        signingKey = new JwtSigningKey(null, SignatureAlgorithm.HS256, key, key, SigningKeyState.ACTIVE, Instant.now());
+        minter = new JwtTokenMinter();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (requestExecutor instanceof ExecutorService pool) {
+            pool.shutdownNow();
+        }
+
+        passwordEncoder.shutdown();
+    }
+
+    /**
+     * A wave of concurrent logins, from the first submission to the last response.
+     */
+    @Benchmark
+    public void loginWave(Outcomes outcomes) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(concurrency);
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        for (int i = 0; i < concurrency; i++) {
+            try {
+                requestExecutor.execute(() -> {
+                    try {
+                        login();
+                        completed.incrementAndGet();
+                    } catch (PasswordHashingRejectedException e) {
+                        rejected.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                done.countDown();
+            }
+        }
+
+        done.await();
+
+        outcomes.completed += completed.get();
+        outcomes.rejected += rejected.get();
+    }
+
+    /**
+     * One login with the blocking profile of a single-factor {@code /auth/login}.
+     */
+    private void login() {
+        query();
+
+        if (!passwordEncoder.matches(PASSWORD, passwordHash)) {
+            throw new IllegalStateException("Password mismatch");
+        }
+
+        query();
+
+        long now = System.currentTimeMillis() / 1000;
+        minter.mint(signingKey, SUBJECT, now, now + 900, 0);
+    }
+
+    /**
+     * Holds a pooled connection for the duration of a query.
+     */
+    private void query() {
+        connectionPool.acquireUninterruptibly();
+        try {
+            Thread.sleep(queryMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connectionPool.release();
+        }
+    }
+}
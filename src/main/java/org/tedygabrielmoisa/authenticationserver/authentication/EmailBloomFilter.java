@@ -0,0 +1,236 @@
+package org.tedygabrielmoisa.authenticationserver.authentication;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthEvent;
+import org.tedygabrielmoisa.authenticationserver.enums.AuthEventType;
+import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
+import org.tedygabrielmoisa.authenticationserver.services.AuthEventListener;
+import org.tedygabrielmoisa.authenticationserver.services.AuthEventService;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Bloom filter of the normalised emails of every registered user, answering "definitely not registered" without a
+ * query.
+ * <p>
+ * The filter is filled at startup by streaming the {@code users} table, and kept current by registrations on this
+ * instance and, through the revocation feed, on the others. Until it is filled, every email is reported as possibly
+ * registered. Emails are never removed: a deleted user only costs a false positive.
+ * <p>
+ * A user registered on another instance only reaches this filter with the next feed poll, so a miss is confirmed by
+ * catching up with the feed before it is reported. Catching up polls at most once per catch-up interval, whatever the
+ * number of misses, so a flood of unknown emails costs a few feed queries per second instead of one user query each,
+ * and only an email registered elsewhere within the last interval can still be rejected.
+ */
+@Slf4j
+@Component
+public class EmailBloomFilter implements ApplicationRunner, AuthEventListener {
+
+    private final UserRepository userRepository;
+    private final ObjectProvider<AuthEventService> authEventService;
+    private final TransactionTemplate transactionTemplate;
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    private final LongAdder setBits = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    private volatile boolean ready;
+
+    /**
+     * Creates an empty filter sized for the expected number of users.
+     *
+     * @param userRepository      the repository the emails are streamed from
+     * @param authEventService    the feed caught up with before a miss is reported, resolved lazily since the feed
+     *                            also applies its events to this filter
+     * @param transactionManager  the transaction manager running the startup stream in a read-only transaction
+     * @param expectedUsers       the number of users the filter is sized for
+     * @param falsePositiveRate   the false positive rate targeted at the expected number of users
+     * @param meterRegistry       the registry exposing the lookups, the estimated false positive rate and the footprint
+     */
+    public EmailBloomFilter(
+            UserRepository userRepository,
+            ObjectProvider<AuthEventService> authEventService,
+            PlatformTransactionManager transactionManager,
+            @Value("${application.security.email-filter.expected-users}") long expectedUsers,
+            @Value("${application.security.email-filter.false-positive-rate}") double falsePositiveRate,
+            MeterRegistry meterRegistry) {
+        long users = Math.max(1, expectedUsers);
+        long size = (long) Math.ceil(-users * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (size + 63) / 64));
+
+        this.userRepository = userRepository;
+        this.authEventService = authEventService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = words * 64L;
+        this.hashCount = (int) Math.max(1, Math.round((double) bitCount / users * Math.log(2)));
+
+        FunctionCounter.builder("auth.email.filter.requests", rejected, LongAdder::sum).tag("result", "rejected").register(meterRegistry);
+        FunctionCounter.builder("auth.email.filter.requests", passed, LongAdder::sum).tag("result", "passed").register(meterRegistry);
+        FunctionCounter.builder("auth.email.filter.requests", falsePositives, LongAdder::sum).tag("result", "false_positive").register(meterRegistry);
+        Gauge.builder("auth.email.filter.fpp", this, EmailBloomFilter::expectedFalsePositiveRate).register(meterRegistry);
+        Gauge.builder("auth.email.filter.bytes", this, filter -> filter.bits.length() * 8.0).register(meterRegistry);
+    }
+
+    /**
+     * Fills the filter with the emails of every existing user.
+     *
+     * @param args the application arguments
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<String> emails = userRepository.streamAllEmails()) {
+                emails.forEach(this::add);
+            }
+        });
+
+        ready = true;
+
+        log.info("Email filter ready: {} KiB, {} hashes, estimated false positive rate {}",
+                bits.length() / 128, hashCount, expectedFalsePositiveRate());
+    }
+
+    /**
+     * Adds the email of a registered user.
+     *
+     * @param email the email of the user
+     */
+    public void add(String email) {
+        long[] hashes = hashes(email);
+
+        for (int i = 0; i < hashCount; i++) {
+            long index = index(hashes, i);
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long current;
+
+            do {
+                current = bits.get(word);
+
+                if ((current & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, current, current | mask));
+
+            if ((current & mask) == 0) {
+                setBits.increment();
+            }
+        }
+    }
+
+    /**
+     * Tells whether a user may be registered with the email.
+     *
+     * @param email the email to look up
+     * @return false only if no user is registered with the email, here or on any other instance
+     */
+    public boolean mightContain(String email) {
+        if (!ready) {
+            return true;
+        }
+
+        long[] hashes = hashes(email);
+
+        if (!test(hashes)) {
+            authEventService.getObject().catchUp();
+
+            if (!test(hashes)) {
+                rejected.increment();
+                return false;
+            }
+        }
+
+        passed.increment();
+        return true;
+    }
+
+    private boolean test(long[] hashes) {
+        for (int i = 0; i < hashCount; i++) {
+            long index = index(hashes, i);
+
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Records that an email reported as possibly registered turned out not to be.
+     */
+    public void falsePositive() {
+        if (ready) {
+            falsePositives.increment();
+        }
+    }
+
+    /**
+     * Adds the email of a user registered on any instance.
+     *
+     * @param event the auth event
+     */
+    @Override
+    public void onAuthEvent(AuthEvent event) {
+        if (event.getType() == AuthEventType.REGISTERED) {
+            add(event.getEmail());
+        }
+    }
+
+    /**
+     * Estimates the false positive rate from the proportion of bits set.
+     *
+     * @return the estimated false positive rate
+     */
+    public double expectedFalsePositiveRate() {
+        return Math.pow((double) setBits.sum() / bitCount, hashCount);
+    }
+
+    private long index(long[] hashes, int i) {
+        return Math.floorMod(hashes[0] + i * hashes[1], bitCount);
+    }
+
+    /**
+     * Computes the two base hashes of the normalised email, combined into the filter's hashes by double hashing.
+     *
+     * @param email the email
+     * @return the two base hashes
+     */
+    private static long[] hashes(String email) {
+        byte[] bytes = email.trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+        long hash = 0xcbf29ce484222325L;
+
+        for (byte b : bytes) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+
+        return new long[]{mix(hash), mix(hash ^ 0x9e3779b97f4a7c15L) | 1};
+    }
+
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+}
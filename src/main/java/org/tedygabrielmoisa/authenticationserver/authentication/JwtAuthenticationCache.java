@@ -0,0 +1,220 @@
+package org.tedygabrielmoisa.authenticationserver.authentication;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthEvent;
+import org.tedygabrielmoisa.authenticationserver.services.AuthEventListener;
+import org.tedygabrielmoisa.authenticationserver.services.TokenDigests;
+import org.tedygabrielmoisa.authenticationserver.services.VerifiedToken;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded cache of access tokens that were already verified and resolved to a principal.
+ * Entries are keyed by the SHA-256 digest of the token and live at most until the token itself expires,
+ * so a repeated bearer token skips signature verification and the user and token lookups.
+ */
+@Component
+public class JwtAuthenticationCache implements AuthEventListener {
+
+    private final int maxSize;
+    private final long ttlMillis;
+
+    private final Map<TokenKey, CachedAuthentication> entries = new ConcurrentHashMap<>();
+    private final Map<String, Set<TokenKey>> keysByUser = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final AtomicLong revocations = new AtomicLong();
+
+    /**
+     * Creates the cache and registers its counters.
+     *
+     * @param maxSize       the maximum number of cached tokens
+     * @param ttlSeconds    the maximum time an entry is trusted, in seconds
+     * @param meterRegistry the registry exposing the cache counters
+     */
+    public JwtAuthenticationCache(
+            @Value("${application.security.jwt.cache.max-size}") int maxSize,
+            @Value("${application.security.jwt.cache.ttl}") long ttlSeconds,
+            MeterRegistry meterRegistry) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlSeconds * 1000;
+
+        FunctionCounter.builder("auth.token.cache.requests", hits, LongAdder::sum).tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("auth.token.cache.requests", misses, LongAdder::sum).tag("result", "miss").register(meterRegistry);
+        FunctionCounter.builder("auth.token.cache.evictions", evictions, LongAdder::sum).register(meterRegistry);
+        Gauge.builder("auth.token.cache.size", entries, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached authentication for the token, if it is present and not expired.
+     *
+     * @param token the raw access token
+     * @return the cached authentication, or null on a miss
+     */
+    public CachedAuthentication get(String token) {
+        TokenKey key = TokenKey.of(token);
+        CachedAuthentication cached = entries.get(key);
+
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (cached.expiresAt() <= System.currentTimeMillis()) {
+            remove(key, cached);
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return cached;
+    }
+
+    /**
+     * Returns a stamp to take before resolving a token, so that a revocation racing with the resolution is not lost.
+     *
+     * @return the current revocation stamp
+     */
+    public long stamp() {
+        return revocations.get();
+    }
+
+    /**
+     * Caches the resolved principal of a verified token.
+     * The entry is discarded if any user was revoked since the stamp was taken.
+     *
+     * @param stamp         the stamp taken before the token was resolved
+     * @param verifiedToken the verified access token
+     * @param userDetails   the principal the token resolved to
+     */
+    public void put(long stamp, VerifiedToken verifiedToken, UserDetails userDetails) {
+        long now = System.currentTimeMillis();
+        long expiresAt = Math.min(now + ttlMillis, verifiedToken.getExpiresAt() * 1000);
+
+        if (expiresAt <= now) {
+            return;
+        }
+
+        if (entries.size() >= maxSize) {
+            makeRoom(now);
+        }
+
+        TokenKey key = TokenKey.of(verifiedToken.getToken());
+        CachedAuthentication cached = new CachedAuthentication(verifiedToken, userDetails, expiresAt);
+        entries.put(key, cached);
+        keysByUser.compute(userDetails.getUsername(), (username, keys) -> {
+            Set<TokenKey> indexed = keys != null ? keys : ConcurrentHashMap.newKeySet();
+            indexed.add(key);
+            return indexed;
+        });
+
+        if (revocations.get() != stamp) {
+            remove(key, cached);
+        }
+    }
+
+    /**
+     * Evicts the cached tokens of the user a revocation made on any instance is about.
+     *
+     * @param event the revocation event
+     */
+    @Override
+    public void onAuthEvent(AuthEvent event) {
+        evictUser(event.getEmail());
+    }
+
+    /**
+     * Evicts every cached token of the given user.
+     *
+     * @param username the username (email) of the user
+     */
+    public void evictUser(String username) {
+        revocations.incrementAndGet();
+        Set<TokenKey> keys = keysByUser.remove(username);
+
+        if (keys == null) {
+            return;
+        }
+
+        for (TokenKey key : keys) {
+            if (entries.remove(key) != null) {
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Drops expired entries and, if the cache is still full, an arbitrary tenth of the remaining ones.
+     *
+     * @param now the current time in milliseconds
+     */
+    private void makeRoom(long now) {
+        entries.forEach((key, cached) -> {
+            if (cached.expiresAt() <= now) {
+                remove(key, cached);
+            }
+        });
+
+        int excess = entries.size() - maxSize + Math.max(1, maxSize / 10);
+        Iterator<Map.Entry<TokenKey, CachedAuthentication>> iterator = entries.entrySet().iterator();
+
+        while (excess-- > 0 && iterator.hasNext()) {
+            Map.Entry<TokenKey, CachedAuthentication> entry = iterator.next();
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Removes an entry and its reference from the per-user index. The reference is added and removed within
+     * {@code compute} calls on the index, so a set emptied here is never the one a concurrent {@link #put} adds to.
+     *
+     * @param key    the key of the entry
+     * @param cached the entry to remove
+     */
+    private void remove(TokenKey key, CachedAuthentication cached) {
+        if (!entries.remove(key, cached)) {
+            return;
+        }
+
+        evictions.increment();
+        keysByUser.computeIfPresent(cached.userDetails().getUsername(), (username, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    /**
+     * A verified token together with the principal it resolved to.
+     *
+     * @param verifiedToken the verified token
+     * @param userDetails   the resolved principal and its authorities
+     * @param expiresAt     the time the entry stops being trusted, in epoch milliseconds
+     */
+    public record CachedAuthentication(VerifiedToken verifiedToken, UserDetails userDetails, long expiresAt) {
+    }
+
+    /**
+     * The 256-bit digest of a token stored as four longs.
+     */
+    private record TokenKey(long a, long b, long c, long d) {
+
+        static TokenKey of(String token) {
+            ByteBuffer digest = ByteBuffer.wrap(TokenDigests.sha256(token));
+
+            return new TokenKey(digest.getLong(), digest.getLong(), digest.getLong(), digest.getLong());
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.tedygabrielmoisa.authenticationserver.authentication;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthEvent;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
+import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
+import org.tedygabrielmoisa.authenticationserver.services.AuthEventListener;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded, time-limited cache of {@link AuthPrincipal}s by email, shared by every lookup of the authenticated
+ * principal.
+ * <p>
+ * Lookups are first memoised for the current request, so the filters, the authentication providers and the controller
+ * resolve a user with at most one query per request, then served from the shared cache until the entry expires.
+ * Entries are invalidated when the user is written through JPA, when the token epoch is bumped and when a revocation
+ * event arrives from any instance.
+ */
+@Component
+public class PrincipalCache implements AuthEventListener {
+
+    private static final String REQUEST_ATTRIBUTE = PrincipalCache.class.getName();
+
+    private final UserRepository userRepository;
+    private final EmailBloomFilter emailFilter;
+    private final int maxSize;
+    private final long ttlMillis;
+
+    private final Map<String, CachedPrincipal> entries = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder requestHits = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates the cache and registers its counters.
+     *
+     * @param userRepository the repository the users are loaded from
+     * @param emailFilter    the filter ruling out unregistered emails without a query
+     * @param maxSize        the maximum number of cached users
+     * @param ttlSeconds     the maximum time an entry is trusted, in seconds
+     * @param meterRegistry  the registry exposing the cache counters
+     */
+    public PrincipalCache(
+            UserRepository userRepository,
+            EmailBloomFilter emailFilter,
+            @Value("${application.security.principal-cache.max-size}") int maxSize,
+            @Value("${application.security.principal-cache.ttl}") long ttlSeconds,
+            MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.emailFilter = emailFilter;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlSeconds * 1000;
+
+        FunctionCounter.builder("auth.principal.cache.requests", requestHits, LongAdder::sum).tag("result", "request").register(meterRegistry);
+        FunctionCounter.builder("auth.principal.cache.requests", hits, LongAdder::sum).tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("auth.principal.cache.requests", misses, LongAdder::sum).tag("result", "miss").register(meterRegistry);
+        Gauge.builder("auth.principal.cache.size", entries, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Finds the principal of a user by email.
+     *
+     * @param email the email of the user
+     * @return an {@link Optional} containing the principal, or an empty {@link Optional} if no user found
+     */
+    public Optional<AuthPrincipal> findPrincipal(String email) {
+        Map<String, AuthPrincipal> memo = requestMemo();
+        AuthPrincipal principal = memo != null ? memo.get(email) : null;
+
+        if (principal != null) {
+            requestHits.increment();
+            return Optional.of(principal);
+        }
+
+        principal = findShared(email);
+
+        if (principal != null && memo != null) {
+            memo.put(email, principal);
+        }
+
+        return Optional.ofNullable(principal);
+    }
+
+    /**
+     * Drops the cached user, here and in the memo of the current request.
+     *
+     * @param email the email of the user
+     */
+    public void evict(String email) {
+        invalidations.incrementAndGet();
+        entries.remove(email);
+
+        Map<String, AuthPrincipal> memo = requestMemo();
+        if (memo != null) {
+            memo.remove(email);
+        }
+    }
+
+    /**
+     * Drops the cached user a revocation made on any instance is about.
+     *
+     * @param event the revocation event
+     */
+    @Override
+    public void onAuthEvent(AuthEvent event) {
+        evict(event.getEmail());
+    }
+
+    /**
+     * Returns the principal from the shared cache, loading it on a miss unless the email filter rules the user out.
+     * A load racing with an invalidation is returned but not cached.
+     *
+     * @param email the email of the user
+     * @return the principal, or null if no user found
+     */
+    private AuthPrincipal findShared(String email) {
+        long now = System.currentTimeMillis();
+        CachedPrincipal cached = entries.get(email);
+
+        if (cached != null && cached.expiresAt() > now) {
+            hits.increment();
+            return cached.principal();
+        }
+
+        if (!emailFilter.mightContain(email)) {
+            return null;
+        }
+
+        misses.increment();
+
+        long stamp = invalidations.get();
+        AuthPrincipal principal = userRepository.findPrincipalByEmail(email).orElse(null);
+
+        if (principal == null) {
+            emailFilter.falsePositive();
+        } else {
+            if (entries.size() >= maxSize) {
+                makeRoom(now);
+            }
+
+            CachedPrincipal loaded = new CachedPrincipal(principal, now + ttlMillis);
+            entries.put(email, loaded);
+
+            if (invalidations.get() != stamp) {
+                entries.remove(email, loaded);
+            }
+        }
+
+        return principal;
+    }
+
+    /**
+     * Drops expired entries and, if the cache is still full, an arbitrary tenth of the remaining ones.
+     *
+     * @param now the current time in milliseconds
+     */
+    private void makeRoom(long now) {
+        entries.values().removeIf(cached -> cached.expiresAt() <= now);
+
+        int excess = entries.size() - maxSize + Math.max(1, maxSize / 10);
+        Iterator<String> iterator = entries.keySet().iterator();
+
+        while (excess-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the lookups memoised for the current request.
+     *
+     * @return the memo, or null outside of a request
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, AuthPrincipal> requestMemo() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+
+        if (attributes == null) {
+            return null;
+        }
+
+        Map<String, AuthPrincipal> memo = (Map<String, AuthPrincipal>) attributes.getAttribute(REQUEST_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+
+        if (memo == null) {
+            memo = new HashMap<>(2);
+            attributes.setAttribute(REQUEST_ATTRIBUTE, memo, RequestAttributes.SCOPE_REQUEST);
+        }
+
+        return memo;
+    }
+
+    /**
+     * A cached principal and the time until which it is trusted.
+     *
+     * @param principal the principal
+     * @param expiresAt the expiration time in milliseconds
+     */
+    private record CachedPrincipal(AuthPrincipal principal, long expiresAt) {
+    }
+}
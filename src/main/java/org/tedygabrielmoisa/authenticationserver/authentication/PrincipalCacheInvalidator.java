@@ -0,0 +1,29 @@
+package org.tedygabrielmoisa.authenticationserver.authentication;
+
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.tedygabrielmoisa.authenticationserver.entities.User;
+
+/**
+ * JPA entity listener writing user updates through to the {@link PrincipalCache}.
+ * The cache is resolved lazily, since it depends on the repositories built by the same entity manager factory.
+ */
+@Component
+@RequiredArgsConstructor
+public class PrincipalCacheInvalidator {
+    private final ObjectProvider<PrincipalCache> principalCache;
+
+    /**
+     * Evicts the cached user once an update or removal is flushed.
+     *
+     * @param user the changed user
+     */
+    @PostUpdate
+    @PostRemove
+    public void onUserChange(User user) {
+        principalCache.getObject().evict(user.getEmail());
+    }
+}
@@ -0,0 +1,136 @@
+package org.tedygabrielmoisa.authenticationserver.authentication;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket limiter, implemented as a generic cell rate algorithm: each key only stores the theoretical
+ * arrival time of its next request, updated with a compare-and-set.
+ * <p>
+ * Keys are spread over shards of bounded size. A key whose theoretical arrival time has passed holds a full bucket,
+ * exactly as if it was absent, so idle keys can be evicted at any time without granting anything. A full shard first
+ * drops its idle keys, then an arbitrary tenth of the others.
+ */
+public class RateLimiter {
+
+    private final long emissionInterval;
+    private final long burstTolerance;
+    private final int maxKeysPerShard;
+    private final Map<String, AtomicLong>[] shards;
+
+    /**
+     * Creates a limiter.
+     *
+     * @param perMinute   the sustained number of requests allowed per minute and key
+     * @param burst       the number of requests a key may send at once
+     * @param maxKeys     the maximum number of keys tracked over all shards
+     * @param shardCount  the number of shards, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public RateLimiter(int perMinute, int burst, int maxKeys, int shardCount) {
+        int size = Integer.highestOneBit(Math.max(1, shardCount - 1)) << 1;
+
+        this.emissionInterval = TimeUnit.MINUTES.toNanos(1) / Math.max(1, perMinute);
+        this.burstTolerance = emissionInterval * Math.max(1, burst);
+        this.maxKeysPerShard = Math.max(1, maxKeys / size);
+        this.shards = new Map[size];
+
+        for (int i = 0; i < size; i++) {
+            shards[i] = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * Takes one token from the bucket of the key.
+     *
+     * @param key the key, such as a client address
+     * @param now the current time, from {@link System#nanoTime()}
+     * @return 0 if the request is allowed, otherwise the time until it would be, in nanoseconds
+     */
+    public long acquire(String key, long now) {
+        Map<String, AtomicLong> shard = shardOf(key);
+        AtomicLong arrival = shard.get(key);
+
+        if (arrival == null) {
+            if (shard.size() >= maxKeysPerShard) {
+                makeRoom(shard, now);
+            }
+
+            arrival = shard.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, now) + emissionInterval;
+            long wait = next - burstTolerance - now;
+
+            if (wait > 0) {
+                return wait;
+            }
+
+            if (arrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Gives back the token a request took, for a request rejected by another limit after all. A key evicted in the
+     * meantime already holds a full bucket, so there is nothing to give back.
+     *
+     * @param key the key the token was taken from
+     */
+    public void release(String key) {
+        AtomicLong arrival = shardOf(key).get(key);
+
+        if (arrival != null) {
+            arrival.addAndGet(-emissionInterval);
+        }
+    }
+
+    /**
+     * Drops every idle key.
+     *
+     * @param now the current time, from {@link System#nanoTime()}
+     */
+    public void evictIdle(long now) {
+        for (Map<String, AtomicLong> shard : shards) {
+            shard.values().removeIf(arrival -> arrival.get() - now <= 0);
+        }
+    }
+
+    /**
+     * Returns the number of tracked keys.
+     *
+     * @return the number of keys over all shards
+     */
+    public int size() {
+        int size = 0;
+
+        for (Map<String, AtomicLong> shard : shards) {
+            size += shard.size();
+        }
+
+        return size;
+    }
+
+    private Map<String, AtomicLong> shardOf(String key) {
+        int hash = key.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+    }
+
+    private void makeRoom(Map<String, AtomicLong> shard, long now) {
+        shard.values().removeIf(arrival -> arrival.get() - now <= 0);
+
+        int excess = shard.size() - maxKeysPerShard + Math.max(1, maxKeysPerShard / 10);
+        Iterator<String> iterator = shard.keySet().iterator();
+
+        while (excess-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+}
@@ -5,19 +5,19 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Component;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
 import org.tedygabrielmoisa.authenticationserver.entities.SecurityUser;
-import org.tedygabrielmoisa.authenticationserver.entities.User;
-import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
 
 import java.util.Optional;
 
 /**
- * {@link UserDetailsService} implementation for loading {@link UserDetails} from the database.
+ * {@link UserDetailsService} implementation for loading {@link UserDetails} from the database,
+ * through the {@link PrincipalCache}.
  */
 @Component
 @RequiredArgsConstructor
 public class SecurityUserDetailsService implements UserDetailsService {
-    private final UserRepository userRepository;
+    private final PrincipalCache principalCache;
 
     /**
      * Loads the user details by username (email).
@@ -28,7 +28,7 @@ public class SecurityUserDetailsService implements UserDetailsService {
      */
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        Optional<User> dbUser = userRepository.findUserByEmail(username);
+        Optional<AuthPrincipal> dbUser = principalCache.findPrincipal(username);
 
         if (dbUser.isPresent()) {
             return new SecurityUser(dbUser.get());
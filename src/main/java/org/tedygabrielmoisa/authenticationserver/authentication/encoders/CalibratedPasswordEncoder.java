@@ -0,0 +1,118 @@
+package org.tedygabrielmoisa.authenticationserver.authentication.encoders;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * {@link PasswordEncoder} hashing with BCrypt at a cost calibrated for the current hardware, or optionally with
+ * Argon2id, and verifying hashes of either algorithm.
+ * <p>
+ * Both formats carry their algorithm and parameters in the hash itself ({@code $2a$12$...}, {@code $argon2id$...}), so
+ * existing rows need no prefix and stay within their column. {@link #upgradeEncoding(String)} reports every hash that
+ * was made with another algorithm or a lower cost than the current one, so that it can be rehashed on the next login.
+ */
+@Slf4j
+public class CalibratedPasswordEncoder implements PasswordEncoder {
+
+    /**
+     * The algorithm name selecting Argon2id for new hashes.
+     */
+    public static final String ARGON2 = "argon2";
+
+    private static final String ARGON2_PREFIX = "$argon2";
+    private static final int MIN_COST = 10;
+    private static final int MAX_COST = 16;
+
+    private final BCryptPasswordEncoder bcrypt;
+    private final Argon2PasswordEncoder argon2 = Argon2PasswordEncoder.defaultsForSpringSecurity_v5_8();
+    private final boolean useArgon2;
+
+    /**
+     * Creates the encoder, calibrating the BCrypt cost unless one is given.
+     *
+     * @param algorithm     the algorithm of new hashes, {@code bcrypt} or {@code argon2}
+     * @param cost          the BCrypt cost, or 0 to calibrate it
+     * @param targetLatency the verification time the calibrated cost must not exceed, in milliseconds
+     */
+    public CalibratedPasswordEncoder(String algorithm, int cost, long targetLatency) {
+        this.useArgon2 = ARGON2.equalsIgnoreCase(algorithm);
+        this.bcrypt = new BCryptPasswordEncoder(cost > 0 ? cost : calibrate(targetLatency));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return useArgon2 ? argon2.encode(rawPassword) : bcrypt.encode(rawPassword);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (encodedPassword == null) {
+            return false;
+        }
+
+        return isArgon2(encodedPassword)
+                ? argon2.matches(rawPassword, encodedPassword)
+                : bcrypt.matches(rawPassword, encodedPassword);
+    }
+
+    /**
+     * {@inheritDoc}
+     * True for hashes of the other algorithm, BCrypt hashes of a lower cost and Argon2 hashes of other parameters.
+     */
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        if (encodedPassword == null || encodedPassword.isEmpty()) {
+            return false;
+        }
+
+        if (isArgon2(encodedPassword) != useArgon2) {
+            return true;
+        }
+
+        return useArgon2 ? argon2.upgradeEncoding(encodedPassword) : bcrypt.upgradeEncoding(encodedPassword);
+    }
+
+    private static boolean isArgon2(String encodedPassword) {
+        return encodedPassword.startsWith(ARGON2_PREFIX);
+    }
+
+    /**
+     * Finds the highest BCrypt cost whose hashing time stays within the target. Each cost doubles the time, so the
+     * search stops at the first cost over the target.
+     *
+     * @param targetLatency the target hashing time, in milliseconds
+     * @return the calibrated cost, never below {@value #MIN_COST}
+     */
+    private static int calibrate(long targetLatency) {
+        new BCryptPasswordEncoder(MIN_COST).encode("calibration");
+
+        int cost = MIN_COST;
+        long elapsed = 0;
+
+        for (int candidate = MIN_COST; candidate <= MAX_COST; candidate++) {
+            BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(candidate);
+            long start = System.nanoTime();
+            encoder.encode("calibration");
+            long millis = (System.nanoTime() - start) / 1_000_000;
+
+            if (millis > targetLatency) {
+                break;
+            }
+
+            cost = candidate;
+            elapsed = millis;
+        }
+
+        log.info("Calibrated BCrypt cost {} ({} ms per hash, target {} ms)", cost, elapsed, targetLatency);
+
+        return cost;
+    }
+}
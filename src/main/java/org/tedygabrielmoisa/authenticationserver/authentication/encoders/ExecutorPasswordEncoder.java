@@ -0,0 +1,151 @@
+package org.tedygabrielmoisa.authenticationserver.authentication.encoders;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * {@link PasswordEncoder} running every hash and verification of its delegate on a dedicated, bounded executor.
+ * <p>
+ * The executor has one thread per core and a bounded queue, so a login burst can use at most the CPU those threads
+ * have instead of every request thread, and requests that do not hash passwords keep being served. When the queue is
+ * full the call fails right away with a {@link PasswordHashingRejectedException} rather than piling up behind the
+ * burst. The time spent queued and the time spent hashing are recorded as histograms.
+ * <p>
+ * Hashing is CPU-bound, so these threads stay platform threads in the virtual thread mode: the bound is what keeps an
+ * unbounded number of virtual request threads from hashing at once, and a virtual thread waiting for its result
+ * unmounts from its carrier.
+ */
+public class ExecutorPasswordEncoder implements PasswordEncoder {
+
+    private final PasswordEncoder delegate;
+    private final ThreadPoolExecutor executor;
+    private final Timer encodeQueueTimer;
+    private final Timer matchesQueueTimer;
+    private final Timer encodeTimer;
+    private final Timer matchesTimer;
+    private final Counter rejections;
+
+    /**
+     * Creates the encoder and starts its executor.
+     *
+     * @param delegate      the encoder doing the actual hashing
+     * @param threads       the number of hashing threads, or 0 for one per available core
+     * @param queueCapacity the maximum number of calls waiting for a hashing thread
+     * @param meterRegistry the registry exposing the queue wait, the hash time and the rejections
+     */
+    public ExecutorPasswordEncoder(PasswordEncoder delegate, int threads, int queueCapacity, MeterRegistry meterRegistry) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+
+        this.delegate = delegate;
+        this.executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hash-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        this.encodeQueueTimer = histogram("auth.password.hash.queue", "encode", meterRegistry);
+        this.matchesQueueTimer = histogram("auth.password.hash.queue", "matches", meterRegistry);
+        this.encodeTimer = histogram("auth.password.hash.time", "encode", meterRegistry);
+        this.matchesTimer = histogram("auth.password.hash.time", "matches", meterRegistry);
+        this.rejections = meterRegistry.counter("auth.password.hash.rejected");
+
+        meterRegistry.gauge("auth.password.hash.queued", executor, pool -> pool.getQueue().size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return submit(encodeQueueTimer, encodeTimer, () -> delegate.encode(rawPassword));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return submit(matchesQueueTimer, matchesTimer, () -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only inspects the stored hash, so it runs on the calling thread.
+     */
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    /**
+     * Stops the executor, letting the queued calls finish. Called by the container on shutdown.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Runs a hashing call on the executor and waits for its result.
+     *
+     * @param queueTimer the timer recording the time spent queued
+     * @param hashTimer  the timer recording the time spent hashing
+     * @param call       the hashing call
+     * @param <T>        the type of the result
+     * @return the result of the call
+     * @throws PasswordHashingRejectedException if the queue is full or the calling thread is interrupted
+     */
+    private <T> T submit(Timer queueTimer, Timer hashTimer, Supplier<T> call) {
+        long submittedAt = System.nanoTime();
+        Future<T> future;
+
+        try {
+            future = executor.submit(() -> {
+                queueTimer.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                return hashTimer.record(call);
+            });
+        } catch (RejectedExecutionException e) {
+            rejections.increment();
+            throw new PasswordHashingRejectedException("Password hashing queue is full", e);
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PasswordHashingRejectedException("Interrupted while waiting for password hashing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static Timer histogram(String name, String operation, MeterRegistry meterRegistry) {
+        return Timer.builder(name)
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,19 @@
+package org.tedygabrielmoisa.authenticationserver.authentication.encoders;
+
+/**
+ * Thrown when a password cannot be hashed or verified because the hashing executor is saturated.
+ * It is deliberately not an {@link org.springframework.security.core.AuthenticationException}, so that it is not
+ * mistaken for bad credentials and reaches the controller advice answering with a 503.
+ */
+public class PasswordHashingRejectedException extends RuntimeException {
+
+    /**
+     * Creates the exception.
+     *
+     * @param message the detail message
+     * @param cause   the rejection or interruption that caused it
+     */
+    public PasswordHashingRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
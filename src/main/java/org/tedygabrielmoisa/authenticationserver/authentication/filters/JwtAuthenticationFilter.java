@@ -12,9 +12,15 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
+import org.tedygabrielmoisa.authenticationserver.authentication.JwtAuthenticationCache;
 import org.tedygabrielmoisa.authenticationserver.authentication.SecurityUserDetailsService;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
+import org.tedygabrielmoisa.authenticationserver.entities.SecurityUser;
+import org.tedygabrielmoisa.authenticationserver.enums.Role;
 import org.tedygabrielmoisa.authenticationserver.services.AuthenticationService;
 import org.tedygabrielmoisa.authenticationserver.services.JwtService;
+import org.tedygabrielmoisa.authenticationserver.services.TokenEpochRegistry;
+import org.tedygabrielmoisa.authenticationserver.services.VerifiedToken;
 
 import java.io.IOException;
 
@@ -28,6 +34,8 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     private final AuthenticationService authenticationService;
     private final JwtService jwtService;
     private final SecurityUserDetailsService userService;
+    private final JwtAuthenticationCache authenticationCache;
+    private final TokenEpochRegistry tokenEpochRegistry;
 
     /**
      * Filters the request for JWT authentication.
@@ -61,6 +69,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         try {
             return request.getServletPath().equals("/auth/login") ||
                     request.getServletPath().equals("/auth/checkAuthenticated") ||
+                    request.getServletPath().equals("/auth/refresh") ||
                     request.getServletPath().equals("/auth/register");
         } catch (Exception e) {
             throw new ServletException(e);
@@ -68,21 +77,41 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     }
 
     /**
-     * Authenticates the JWT token.
+     * Authenticates the JWT token, reusing a previously resolved principal when the token is cached and its epoch is
+     * still current, so that an entry cached by a request racing with a revocation is never trusted.
      *
      * @param request the servlet request
      * @param token the JWT token
      * @throws IOException if an error occurs during authentication
      */
     private void authenticateToken(HttpServletRequest request, String token) throws IOException {
-        final String subject = jwtService.extractJwtSubject(token);
+        if (SecurityContextHolder.getContext().getAuthentication() != null) {
+            return;
+        }
+
+        JwtAuthenticationCache.CachedAuthentication cached = authenticationCache.get(token);
+
+        if (cached != null && cached.verifiedToken().getEpoch() >=
+                tokenEpochRegistry.currentEpoch(cached.userDetails().getUsername())) {
+            request.setAttribute(VerifiedToken.REQUEST_ATTRIBUTE, cached.verifiedToken());
+            setAuthentication(request, cached.userDetails());
+            return;
+        }
+
+        final long stamp = authenticationCache.stamp();
+        final VerifiedToken verifiedToken = jwtService.verifyToken(token);
+        final String subject = verifiedToken != null ? verifiedToken.getSubject() : null;
 
         try {
-            if (subject != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+            if (subject != null && jwtService.isStateless() && verifiedToken.hasPrincipalClaims()) {
+                authenticateFromClaims(request, stamp, verifiedToken);
+            } else if (subject != null) {
                 UserDetails userDetails = userService.loadUserByUsername(subject);
 
-                if (jwtService.isTokenValid(token, userDetails.getUsername()) &&
-                        jwtService.isRefreshTokenPreset(userDetails.getUsername())) {
+                if (verifiedToken.isIssuedTo(userDetails.getUsername()) &&
+                        verifiedToken.getEpoch() >= tokenEpochRegistry.currentEpoch(userDetails.getUsername())) {
+                    authenticationCache.put(stamp, verifiedToken, userDetails);
+                    request.setAttribute(VerifiedToken.REQUEST_ATTRIBUTE, verifiedToken);
                     setAuthentication(request, userDetails);
                 }
             }
@@ -91,6 +120,37 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         }
     }
 
+    /**
+     * Authenticates a stateless access token from its verified claims, without loading the user.
+     * The epoch is compared with the one of the {@link TokenEpochRegistry}, kept current by the revocation feed and
+     * loaded from the database when this instance does not know the user yet, so a node that just started cannot
+     * accept a token revoked before it started. A revoked token is rejected at most one poll interval after the
+     * revocation.
+     *
+     * @param request the servlet request
+     * @param stamp the cache stamp taken before the token was verified
+     * @param verifiedToken the verified access token carrying the principal claims
+     */
+    private void authenticateFromClaims(HttpServletRequest request, long stamp, VerifiedToken verifiedToken) {
+        if (verifiedToken.getEpoch() < tokenEpochRegistry.currentEpoch(verifiedToken.getSubject())) {
+            return;
+        }
+
+        UserDetails userDetails = new SecurityUser(new AuthPrincipal(
+                verifiedToken.getUserId(),
+                verifiedToken.getSubject(),
+                null,
+                Role.valueOf(verifiedToken.getRole()),
+                null,
+                verifiedToken.getEpoch(),
+                null
+        ));
+
+        authenticationCache.put(stamp, verifiedToken, userDetails);
+        request.setAttribute(VerifiedToken.REQUEST_ATTRIBUTE, verifiedToken);
+        setAuthentication(request, userDetails);
+    }
+
     /**
      * Sets the authentication info in the security context.
      *
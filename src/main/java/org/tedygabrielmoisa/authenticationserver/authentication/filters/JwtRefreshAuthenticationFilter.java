@@ -13,8 +13,9 @@ import org.springframework.security.web.authentication.WebAuthenticationDetailsS
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.tedygabrielmoisa.authenticationserver.authentication.SecurityUserDetailsService;
-import org.tedygabrielmoisa.authenticationserver.repositories.TokenRepository;
 import org.tedygabrielmoisa.authenticationserver.services.JwtService;
+import org.tedygabrielmoisa.authenticationserver.services.VerifiedToken;
+import org.tedygabrielmoisa.authenticationserver.stores.TokenStore;
 
 import java.io.IOException;
 
@@ -27,7 +28,7 @@ import java.io.IOException;
 public class JwtRefreshAuthenticationFilter extends OncePerRequestFilter {
     private final JwtService jwtService;
     private final SecurityUserDetailsService userService;
-    private final TokenRepository tokenRepository;
+    private final TokenStore tokenStore;
 
     /**
      * Filters the request for JWT refresh authentication.
@@ -73,17 +74,19 @@ public class JwtRefreshAuthenticationFilter extends OncePerRequestFilter {
      * @throws IOException if an error occurs during authentication
      */
     private void authenticateToken(HttpServletRequest request, String cookieToken) throws IOException {
-        final String subject = jwtService.extractJwtSubject(cookieToken);
+        final VerifiedToken verifiedToken = jwtService.verifyToken(cookieToken);
+        final String subject = verifiedToken != null ? verifiedToken.getSubject() : null;
 
         try {
             if (subject != null && SecurityContextHolder.getContext().getAuthentication() == null) {
                 UserDetails userDetails = userService.loadUserByUsername(subject);
 
-                boolean isTokenValid = tokenRepository.findByToken(cookieToken)
-                        .map(token -> !token.isExpired() && !token.isRevoked())
+                boolean isTokenValid = tokenStore.find(cookieToken)
+                        .map(token -> token.isValid(System.currentTimeMillis() / 1000))
                         .orElse(false);
 
-                if (isTokenValid && jwtService.isTokenValid(cookieToken, userDetails.getUsername())) {
+                if (isTokenValid && verifiedToken.isIssuedTo(userDetails.getUsername())) {
+                    request.setAttribute(VerifiedToken.REQUEST_ATTRIBUTE, verifiedToken);
                     setAuthentication(request, userDetails);
                 }
             }
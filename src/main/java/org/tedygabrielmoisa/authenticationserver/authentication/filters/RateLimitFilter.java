@@ -0,0 +1,128 @@
+package org.tedygabrielmoisa.authenticationserver.authentication.filters;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.NonNull;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.tedygabrielmoisa.authenticationserver.authentication.RateLimiter;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filter limiting the rate of the credential endpoints per client address and, for logins, per email, before any
+ * lookup or password hashing is done.
+ * Requests over the limit are answered right away with a 429 and a {@code Retry-After} header.
+ * <p>
+ * The client address is the one resolved by the container from the {@code X-Forwarded-For} header of trusted proxies
+ * ({@code server.forward-headers-strategy}), so clients behind the load balancer do not share one bucket.
+ */
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private final Map<String, RateLimiter> limiters;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Creates the filter and its per-endpoint limiters.
+     *
+     * @param loginPerMinute    the sustained logins allowed per minute and key
+     * @param loginBurst        the logins a key may send at once
+     * @param registerPerMinute the sustained registrations allowed per minute and address
+     * @param registerBurst     the registrations an address may send at once
+     * @param refreshPerMinute  the sustained refreshes allowed per minute and address
+     * @param refreshBurst      the refreshes an address may send at once
+     * @param maxKeys           the maximum number of keys tracked per endpoint
+     * @param shards            the number of shards of each limiter
+     * @param meterRegistry     the registry exposing the rejections and the tracked keys
+     */
+    public RateLimitFilter(
+            @Value("${application.security.rate-limit.login.per-minute}") int loginPerMinute,
+            @Value("${application.security.rate-limit.login.burst}") int loginBurst,
+            @Value("${application.security.rate-limit.register.per-minute}") int registerPerMinute,
+            @Value("${application.security.rate-limit.register.burst}") int registerBurst,
+            @Value("${application.security.rate-limit.refresh.per-minute}") int refreshPerMinute,
+            @Value("${application.security.rate-limit.refresh.burst}") int refreshBurst,
+            @Value("${application.security.rate-limit.max-keys}") int maxKeys,
+            @Value("${application.security.rate-limit.shards}") int shards,
+            MeterRegistry meterRegistry) {
+        this.limiters = Map.of(
+                "/auth/login", new RateLimiter(loginPerMinute, loginBurst, maxKeys, shards),
+                "/auth/register", new RateLimiter(registerPerMinute, registerBurst, maxKeys, shards),
+                "/auth/refresh", new RateLimiter(refreshPerMinute, refreshBurst, maxKeys, shards)
+        );
+        this.meterRegistry = meterRegistry;
+
+        limiters.forEach((path, limiter) ->
+                Gauge.builder("auth.rate.limit.keys", limiter, RateLimiter::size).tag("endpoint", path).register(meterRegistry));
+    }
+
+    /**
+     * Takes a token for the client address and, if present, the email, rejecting the request if either is exhausted.
+     * The address token is given back when the email rejects the request, so that both are taken or neither is.
+     *
+     * @param request the servlet request
+     * @param response the servlet response
+     * @param filterChain the filter chain
+     * @throws ServletException if an error occurs during filtering
+     * @throws IOException if an error occurs during IO operations
+     */
+    @Override
+    protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull FilterChain filterChain) throws ServletException, IOException {
+        String path = request.getServletPath();
+        RateLimiter limiter = limiters.get(path);
+        long now = System.nanoTime();
+        String address = "ip:" + request.getRemoteAddr();
+        long wait = limiter.acquire(address, now);
+
+        String email = request.getParameter("email");
+        if (wait == 0 && email != null) {
+            wait = limiter.acquire("email:" + email.trim().toLowerCase(Locale.ROOT), now);
+
+            if (wait > 0) {
+                limiter.release(address);
+            }
+        }
+
+        if (wait > 0) {
+            meterRegistry.counter("auth.rate.limit.rejected", "endpoint", path).increment();
+
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1))));
+            return;
+        }
+
+        filterChain.doFilter(request, response);
+    }
+
+    /**
+     * Determines if the filter should be applied to the request.
+     *
+     * @param request the servlet request
+     * @return true if the endpoint is not rate limited, false otherwise
+     */
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        return !limiters.containsKey(request.getServletPath());
+    }
+
+    /**
+     * Drops the keys whose buckets have refilled, so that memory follows the active clients.
+     */
+    @Scheduled(fixedDelay = 60, timeUnit = TimeUnit.SECONDS)
+    public void evictIdle() {
+        long now = System.nanoTime();
+        limiters.values().forEach(limiter -> limiter.evictIdle(now));
+    }
+}
@@ -7,14 +7,12 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Component;
+import org.tedygabrielmoisa.authenticationserver.authentication.PrincipalCache;
 import org.tedygabrielmoisa.authenticationserver.authentication.SecurityUserDetailsService;
-import org.tedygabrielmoisa.authenticationserver.entities.Otp;
-import org.tedygabrielmoisa.authenticationserver.repositories.OtpRepository;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
 import org.tedygabrielmoisa.authenticationserver.services.OtpService;
-
-import java.util.Optional;
+import org.tedygabrielmoisa.authenticationserver.services.TotpService;
 
 /**
  * {@link AuthenticationProvider} implementation for OTP (One-Time Password) authentication.
@@ -24,12 +22,14 @@ import java.util.Optional;
 @RequiredArgsConstructor
 public class OtpAuthenticationProvider implements AuthenticationProvider {
     private final SecurityUserDetailsService userService;
-    private final OtpRepository otpRepository;
     private final OtpService otpService;
-    private final PasswordEncoder passwordEncoder;
+    private final PrincipalCache principalCache;
+    private final TotpService totpService;
 
     /**
      * Performs authentication with the given authentication request.
+     * Users enrolled in an authenticator app are verified by TOTP, with the challenge of the password step carried
+     * as the authentication details; the others by the code emailed to them.
      *
      * @param authentication the authentication request object
      * @return a fully authenticated object including credentials if authentication is successful
@@ -41,19 +41,27 @@ public class OtpAuthenticationProvider implements AuthenticationProvider {
         String password = String.valueOf(authentication.getCredentials());
 
         UserDetails userDetails = userService.loadUserByUsername(username);
-        Optional<Otp> dbOtp = otpRepository.findOtpByUserEmail(username);
+        AuthPrincipal principal = principalCache.findPrincipal(username).orElse(null);
+
+        if (principal != null && principal.getSealedTotpSecret() != null) {
+            if (totpService.verify(principal, password, (String) authentication.getDetails())) {
+                return new OtpAuthentication(
+                        userDetails,
+                        null,
+                        userDetails.getAuthorities()
+                );
+            }
 
-        if (dbOtp.isPresent()) {
-            Otp currentOtp = dbOtp.get();
+            throw new BadCredentialsException("Bad credentials!");
+        }
 
-            if (otpService.checkOtpIsValid(currentOtp)) {
-                if (passwordEncoder.matches(password, currentOtp.getOtp())) {
-                    return new OtpAuthentication(
-                            userDetails,
-                            null,
-                            userDetails.getAuthorities()
-                    );
-                }
+        if (principal != null) {
+            if (otpService.verify(principal.getId(), password)) {
+                return new OtpAuthentication(
+                        userDetails,
+                        null,
+                        userDetails.getAuthorities()
+                );
             }
 
             throw new BadCredentialsException("Bad credentials!");
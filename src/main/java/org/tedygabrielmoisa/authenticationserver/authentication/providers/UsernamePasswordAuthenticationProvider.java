@@ -9,10 +9,11 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Component;
+import org.tedygabrielmoisa.authenticationserver.authentication.PrincipalCache;
 import org.tedygabrielmoisa.authenticationserver.authentication.SecurityUserDetailsService;
-import org.tedygabrielmoisa.authenticationserver.entities.User;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
 import org.tedygabrielmoisa.authenticationserver.enums.Role;
-import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
+import org.tedygabrielmoisa.authenticationserver.services.PasswordRehashService;
 
 import java.util.Optional;
 
@@ -25,7 +26,8 @@ import java.util.Optional;
 public class UsernamePasswordAuthenticationProvider implements AuthenticationProvider {
   private final SecurityUserDetailsService userService;
   private final PasswordEncoder passwordEncoder;
-  private final UserRepository userRepository;
+  private final PrincipalCache principalCache;
+  private final PasswordRehashService passwordRehashService;
 
   /**
    * Performs authentication with the given authentication request.
@@ -40,12 +42,16 @@ public class UsernamePasswordAuthenticationProvider implements AuthenticationPro
     String password = String.valueOf(authentication.getCredentials());
 
     UserDetails userDetails = userService.loadUserByUsername(username);
-    Optional<User> dbUser = userRepository.findUserByEmail(username);
+    Optional<AuthPrincipal> dbUser = principalCache.findPrincipal(username);
 
     if (dbUser.isPresent()) {
-      User currentUser = dbUser.get();
+      AuthPrincipal currentUser = dbUser.get();
 
       if (passwordEncoder.matches(password, userDetails.getPassword())) {
+        if (passwordEncoder.upgradeEncoding(currentUser.getPasswordHash())) {
+          passwordRehashService.rehash(currentUser, password);
+        }
+
         if (currentUser.getRole().equals(Role.ADMIN)) {
           return new UsernamePasswordAuthentication(
                   userDetails,
@@ -1,13 +1,16 @@
 package org.tedygabrielmoisa.authenticationserver.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.tedygabrielmoisa.authenticationserver.authentication.encoders.CalibratedPasswordEncoder;
+import org.tedygabrielmoisa.authenticationserver.authentication.encoders.ExecutorPasswordEncoder;
 import org.tedygabrielmoisa.authenticationserver.authentication.providers.OtpAuthenticationProvider;
 import org.tedygabrielmoisa.authenticationserver.authentication.providers.UsernamePasswordAuthenticationProvider;
 
@@ -43,12 +46,29 @@ public class AuthenticationConfig {
     }
 
     /**
-     * Provides a {@link PasswordEncoder} bean that uses BCrypt hashing algorithm.
+     * Provides a {@link PasswordEncoder} bean hashing with a BCrypt cost calibrated at startup, or with Argon2id,
+     * on a dedicated, bounded executor, so that password hashing never occupies more than the hashing threads.
      *
-     * @return a {@link BCryptPasswordEncoder} instance
+     * @param algorithm     the algorithm of new hashes, {@code bcrypt} or {@code argon2}
+     * @param cost          the BCrypt cost, or 0 to calibrate it
+     * @param targetLatency the hashing time the calibrated cost must not exceed, in milliseconds
+     * @param threads       the number of hashing threads, or 0 for one per available core
+     * @param queueCapacity the maximum number of calls waiting for a hashing thread
+     * @param meterRegistry the registry exposing the hashing metrics
+     * @return an {@link ExecutorPasswordEncoder} delegating to a {@link CalibratedPasswordEncoder}
      */
-    @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    @Bean(destroyMethod = "shutdown")
+    public PasswordEncoder passwordEncoder(
+            @Value("${application.security.password.algorithm}") String algorithm,
+            @Value("${application.security.password.bcrypt-cost}") int cost,
+            @Value("${application.security.password.target-latency}") long targetLatency,
+            @Value("${application.security.password.threads}") int threads,
+            @Value("${application.security.password.queue-capacity}") int queueCapacity,
+            MeterRegistry meterRegistry) {
+        return new ExecutorPasswordEncoder(
+                new CalibratedPasswordEncoder(algorithm, cost, targetLatency),
+                threads,
+                queueCapacity,
+                meterRegistry);
     }
 }
@@ -10,6 +10,7 @@ import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.tedygabrielmoisa.authenticationserver.authentication.filters.JwtAuthenticationFilter;
 import org.tedygabrielmoisa.authenticationserver.authentication.filters.JwtRefreshAuthenticationFilter;
+import org.tedygabrielmoisa.authenticationserver.authentication.filters.RateLimitFilter;
 import org.tedygabrielmoisa.authenticationserver.enums.Role;
 
 /**
@@ -20,6 +21,7 @@ import org.tedygabrielmoisa.authenticationserver.enums.Role;
 public class SecurityConfig {
     private final JwtAuthenticationFilter jwtAuthenticationFilter;
     private final JwtRefreshAuthenticationFilter jwtRefreshAuthenticationFilter;
+    private final RateLimitFilter rateLimitFilter;
 
     /**
      * Configures the security filter chain.
@@ -33,11 +35,13 @@ public class SecurityConfig {
 
         http.csrf(AbstractHttpConfigurer::disable);
 
+        http.addFilterBefore(rateLimitFilter, UsernamePasswordAuthenticationFilter.class);
         http.addFilterBefore(jwtRefreshAuthenticationFilter, UsernamePasswordAuthenticationFilter.class);
         http.addFilterBefore(jwtAuthenticationFilter, UsernamePasswordAuthenticationFilter.class);
 
         http.authorizeHttpRequests(c -> c
                 .requestMatchers("/auth/**").permitAll()
+                .requestMatchers("/.well-known/**").permitAll()
                 .requestMatchers("/pokemons/create").hasAnyAuthority(Role.ADMIN.name(), Role.MODERATOR.name())
                 .requestMatchers("/pokemons").hasAnyAuthority(Role.ADMIN.name(), Role.MODERATOR.name(), Role.USER.name())
                 .anyRequest().hasAuthority(Role.ADMIN.name()));
@@ -0,0 +1,72 @@
+package org.tedygabrielmoisa.authenticationserver.controllers;
+
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.tedygabrielmoisa.authenticationserver.dto.RoleChangeDto;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
+import org.tedygabrielmoisa.authenticationserver.entities.User;
+import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
+import org.tedygabrielmoisa.authenticationserver.services.AuthenticationService;
+import org.tedygabrielmoisa.authenticationserver.services.RetentionService;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * REST controller for administrative operations, only reachable by administrators.
+ */
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/admin")
+public class AdminController {
+
+  private final RetentionService retentionService;
+  private final AuthenticationService authenticationService;
+  private final UserRepository userRepository;
+
+  /**
+   * Runs the retention job immediately.
+   *
+   * @return a {@link ResponseEntity} with the number of purged rows per table,
+   * or a conflict status if the job is already running
+   */
+  @PostMapping(value = "/retention/run")
+  public ResponseEntity<Map<String, Integer>> runRetention() {
+    Map<String, Integer> purged = retentionService.purge();
+
+    if (purged == null) {
+      return ResponseEntity.status(HttpServletResponse.SC_CONFLICT).build();
+    }
+
+    return ResponseEntity.ok(purged);
+  }
+
+  /**
+   * Changes the role of a user. Access tokens carrying the previous role stop being accepted on every instance,
+   * while the refresh token of the user mints new ones.
+   *
+   * @param id the ID of the user
+   * @param roleChangeDto the new role
+   * @return a {@link ResponseEntity} with no content, or a not found status if no user has the ID
+   */
+  @PutMapping(value = "/users/{id}/role")
+  public ResponseEntity<Void> changeRole(@PathVariable Integer id, @RequestBody @Valid RoleChangeDto roleChangeDto) {
+    Optional<User> user = userRepository.findById(id);
+
+    if (user.isEmpty()) {
+      return ResponseEntity.notFound().build();
+    }
+
+    authenticationService.changeRole(AuthPrincipal.of(user.get()), roleChangeDto.getRole());
+
+    return ResponseEntity.noContent().build();
+  }
+}
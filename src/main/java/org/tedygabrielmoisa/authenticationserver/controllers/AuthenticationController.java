@@ -10,13 +10,20 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.authentication.logout.SecurityContextLogoutHandler;
 import org.springframework.web.bind.annotation.*;
+import org.tedygabrielmoisa.authenticationserver.authentication.PrincipalCache;
 import org.tedygabrielmoisa.authenticationserver.dto.LoginResDto;
 import org.tedygabrielmoisa.authenticationserver.dto.LoginUserDto;
 import org.tedygabrielmoisa.authenticationserver.dto.RegisterUserDto;
+import org.tedygabrielmoisa.authenticationserver.dto.TotpEnrollmentDto;
+import org.tedygabrielmoisa.authenticationserver.dto.TotpRequestDto;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
 import org.tedygabrielmoisa.authenticationserver.entities.User;
 import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
 import org.tedygabrielmoisa.authenticationserver.services.AuthenticationService;
 import org.tedygabrielmoisa.authenticationserver.services.JwtService;
+import org.tedygabrielmoisa.authenticationserver.services.TokenPair;
+import org.tedygabrielmoisa.authenticationserver.services.TotpService;
+import org.tedygabrielmoisa.authenticationserver.services.VerifiedToken;
 
 import java.util.Optional;
 
@@ -31,18 +38,21 @@ public class AuthenticationController {
   private final JwtService jwtService;
   private final AuthenticationService authenticationService;
   private final UserRepository userRepository;
+  private final PrincipalCache principalCache;
   private final PasswordEncoder passwordEncoder;
+  private final TotpService totpService;
 
   /**
    * Handles login requests.
    *
    * @param loginUserDto the user login details
+   * @param request the HTTP servlet request
    * @param response the HTTP servlet response
    * @return a {@link ResponseEntity} with the login response details
    */
   @GetMapping(value = "/login")
-  public ResponseEntity<LoginResDto> login(@Valid LoginUserDto loginUserDto, HttpServletResponse response) {
-    Authentication authentication = authenticationService.authenticate(loginUserDto);
+  public ResponseEntity<LoginResDto> login(@Valid LoginUserDto loginUserDto, HttpServletRequest request, HttpServletResponse response) {
+    Authentication authentication = authenticationService.authenticate(loginUserDto, totpService.getChallengeCookie(request));
 
     if (authentication == null) {
       return ResponseEntity.status(HttpServletResponse.SC_UNAUTHORIZED).build();
@@ -58,7 +68,7 @@ public class AuthenticationController {
 
         return processAuthenticatedUser(currentUser, response);
       } else {
-        authenticationService.saveUserOtp(currentUser);
+        authenticationService.startSecondFactor(currentUser, response);
 
         return ResponseEntity.status(HttpServletResponse.SC_PARTIAL_CONTENT).build();
       }
@@ -88,6 +98,8 @@ public class AuthenticationController {
       return ResponseEntity.status(HttpServletResponse.SC_UNAUTHORIZED).build();
     }
 
+    authenticationService.publishRegistration(user);
+
     return ResponseEntity.status(HttpServletResponse.SC_CREATED).build();
   }
 
@@ -115,6 +127,103 @@ public class AuthenticationController {
     return processAuthenticatedUser(currentUser, response);
   }
 
+  /**
+   * Starts the enrollment of an authenticator app for the authenticated user, replacing the enrolled one if any.
+   * The new secret is only pending: logins keep their current second factor until it is confirmed with
+   * {@link #confirmTotp(TotpRequestDto)}.
+   *
+   * @param totpRequestDto the current password, and a code of the enrolled app if there is one
+   * @return a {@link ResponseEntity} with the secret and the otpauth URI,
+   * or an unauthorized status if the password or the code is wrong
+   */
+  @PostMapping(value = "/totp")
+  public ResponseEntity<TotpEnrollmentDto> enrollTotp(@RequestBody @Valid TotpRequestDto totpRequestDto) {
+    Optional<AuthPrincipal> dbUser = currentPrincipal();
+
+    if (dbUser.isEmpty()) {
+      return ResponseEntity.status(HttpServletResponse.SC_UNAUTHORIZED).build();
+    }
+
+    String secret = totpService.startEnrollment(dbUser.get(), totpRequestDto.getPassword(), totpRequestDto.getCode());
+
+    if (secret == null) {
+      return ResponseEntity.status(HttpServletResponse.SC_UNAUTHORIZED).build();
+    }
+
+    return ResponseEntity.ok(TotpEnrollmentDto.builder()
+            .secret(secret)
+            .uri(totpService.otpauthUri(dbUser.get().getEmail(), secret))
+            .build()
+    );
+  }
+
+  /**
+   * Confirms the pending authenticator app of the authenticated user with a code it generated. Later logins then
+   * verify TOTP codes of this app instead of emailing an OTP.
+   *
+   * @param totpRequestDto a code of the pending app
+   * @return a {@link ResponseEntity} with no content, or an unauthorized status if no app is pending or the code is wrong
+   */
+  @PostMapping(value = "/totp/confirm")
+  public ResponseEntity<Void> confirmTotp(@RequestBody @Valid TotpRequestDto totpRequestDto) {
+    Optional<AuthPrincipal> dbUser = currentPrincipal();
+
+    if (dbUser.isEmpty() || !totpService.confirmEnrollment(dbUser.get(), totpRequestDto.getCode())) {
+      return ResponseEntity.status(HttpServletResponse.SC_UNAUTHORIZED).build();
+    }
+
+    return ResponseEntity.noContent().build();
+  }
+
+  /**
+   * Removes the authenticator app of the authenticated user, whose later logins email an OTP again.
+   *
+   * @param totpRequestDto the current password and a code of the enrolled app
+   * @return a {@link ResponseEntity} with no content,
+   * or an unauthorized status if no app is enrolled or the password or the code is wrong
+   */
+  @DeleteMapping(value = "/totp")
+  public ResponseEntity<Void> removeTotp(@RequestBody @Valid TotpRequestDto totpRequestDto) {
+    Optional<AuthPrincipal> dbUser = currentPrincipal();
+
+    if (dbUser.isEmpty() || !totpService.remove(dbUser.get(), totpRequestDto.getPassword(), totpRequestDto.getCode())) {
+      return ResponseEntity.status(HttpServletResponse.SC_UNAUTHORIZED).build();
+    }
+
+    return ResponseEntity.noContent().build();
+  }
+
+  /**
+   * Exchanges the refresh token cookie for a new access token, rotating the refresh token.
+   * Unlike {@link #checkAuthenticated(HttpServletResponse)}, it does not load the user.
+   *
+   * @param request the HTTP servlet request
+   * @param response the HTTP servlet response
+   * @return a {@link ResponseEntity} with the new access token
+   */
+  @PostMapping(value = "/refresh")
+  public ResponseEntity<LoginResDto> refresh(HttpServletRequest request, HttpServletResponse response) {
+    String cookieToken = jwtService.getCookieToken(request);
+    VerifiedToken refreshToken = cookieToken != null ? jwtService.verifyToken(cookieToken) : null;
+
+    if (refreshToken == null) {
+      return ResponseEntity.status(HttpServletResponse.SC_UNAUTHORIZED).build();
+    }
+
+    TokenPair tokens = authenticationService.rotateRefreshToken(refreshToken);
+
+    if (tokens == null) {
+      return ResponseEntity.status(HttpServletResponse.SC_UNAUTHORIZED).build();
+    }
+
+    authenticationService.setCookieToken(tokens.getRefreshToken(), response);
+
+    return ResponseEntity.ok(LoginResDto.builder()
+            .token(tokens.getAccessToken().getToken())
+            .build()
+    );
+  }
+
   /**
    * Handles user logout requests.
    *
@@ -129,38 +238,53 @@ public class AuthenticationController {
 
     SecurityContextLogoutHandler contextLogoutHandler = new SecurityContextLogoutHandler();
     String principal = SecurityContextHolder.getContext().getAuthentication().getName();
-    Optional<User> dbUser = userRepository.findUserByEmail(principal);
+    Optional<AuthPrincipal> dbUser = principalCache.findPrincipal(principal);
 
     if (dbUser.isEmpty()) {
       return ResponseEntity.status(HttpServletResponse.SC_UNAUTHORIZED).build();
     }
 
-    User currentUser = dbUser.get();
+    AuthPrincipal currentUser = dbUser.get();
 
-    authenticationService.revokeAllUserTokens(currentUser);
+    authenticationService.revokeAllUserSessions(currentUser);
     contextLogoutHandler.logout(request, null, null);
 
     return ResponseEntity.status(HttpServletResponse.SC_ACCEPTED).build();
   }
 
+  /**
+   * Finds the principal of the authenticated user.
+   *
+   * @return an {@link Optional} containing the principal, or an empty {@link Optional} if no user is authenticated
+   */
+  private Optional<AuthPrincipal> currentPrincipal() {
+    Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+
+    if (authentication == null) {
+      return Optional.empty();
+    }
+
+    return principalCache.findPrincipal(authentication.getName());
+  }
+
   /**
    * Processes the authenticated user and generates the response.
+   * The full profile is only loaded by the endpoints returning it.
    *
-   * @param currentUser the authenticated user
+   * @param currentUser the authenticated user, with its profile
    * @param response the HTTP servlet response
    * @return a {@link ResponseEntity} with the login response details
    */
   private ResponseEntity<LoginResDto> processAuthenticatedUser(User currentUser, HttpServletResponse response) {
-    String jwtToken = jwtService.generateJwtToken(currentUser);
-    String jwtRefreshToken = jwtService.generateJwtRefreshToken(currentUser);
+    AuthPrincipal principal = AuthPrincipal.of(currentUser);
+    TokenPair tokens = jwtService.generateTokenPair(principal);
 
-    authenticationService.revokeAllUserTokens(currentUser);
-    authenticationService.saveUserToken(currentUser, jwtRefreshToken);
-    authenticationService.setCookieToken(jwtRefreshToken, response);
+    authenticationService.replaceUserTokens(principal, tokens.getRefreshToken());
+    authenticationService.setCookieToken(tokens.getRefreshToken(), response);
 
     return ResponseEntity.ok(LoginResDto.builder()
             .user(currentUser)
-            .token(jwtToken)
+            .token(tokens.getAccessToken().getToken())
             .build()
     );
   }
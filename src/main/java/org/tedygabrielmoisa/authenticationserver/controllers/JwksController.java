@@ -0,0 +1,33 @@
+package org.tedygabrielmoisa.authenticationserver.controllers;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.tedygabrielmoisa.authenticationserver.services.JwtKeyRing;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * REST controller publishing the public JWT verification keys.
+ */
+@RestController
+@RequiredArgsConstructor
+public class JwksController {
+
+  private final JwtKeyRing jwtKeyRing;
+
+  /**
+   * Returns the JSON Web Key Set so that gateways can verify tokens locally.
+   *
+   * @return a {@link ResponseEntity} with the JWKS and its cache headers
+   */
+  @GetMapping(value = "/.well-known/jwks.json")
+  public ResponseEntity<Map<String, Object>> getJwks() {
+    return ResponseEntity.ok()
+            .cacheControl(CacheControl.maxAge(jwtKeyRing.getJwksMaxAge(), TimeUnit.SECONDS).cachePublic())
+            .body(jwtKeyRing.getJwks());
+  }
+}
@@ -0,0 +1,44 @@
+package org.tedygabrielmoisa.authenticationserver.controllers;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.tedygabrielmoisa.authenticationserver.authentication.encoders.PasswordHashingRejectedException;
+import org.tedygabrielmoisa.authenticationserver.stores.StoreFullException;
+
+/**
+ * Controller advice turning overload rejections into a 503 the client may retry.
+ */
+@RestControllerAdvice
+public class ServiceUnavailableHandler {
+
+  private static final String RETRY_AFTER_SECONDS = "1";
+
+  /**
+   * Handles a password hashing call rejected because the hashing executor is saturated.
+   *
+   * @param exception the rejection
+   * @return a {@link ResponseEntity} with the service unavailable status and a retry delay
+   */
+  @ExceptionHandler(PasswordHashingRejectedException.class)
+  public ResponseEntity<Void> passwordHashingRejected(PasswordHashingRejectedException exception) {
+    return ResponseEntity.status(HttpServletResponse.SC_SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+            .build();
+  }
+
+  /**
+   * Handles a bounded in-memory store refusing a new entry because it is full.
+   *
+   * @param exception the rejection
+   * @return a {@link ResponseEntity} with the service unavailable status and a retry delay
+   */
+  @ExceptionHandler(StoreFullException.class)
+  public ResponseEntity<Void> storeFull(StoreFullException exception) {
+    return ResponseEntity.status(HttpServletResponse.SC_SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+            .build();
+  }
+}
@@ -0,0 +1,194 @@
+package org.tedygabrielmoisa.authenticationserver.diagnostics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process SMTP server accepting and discarding every email, for tests and load runs without a mail relay.
+ * <p>
+ * Enabled by the {@code smtp-stub} profile, which also points {@code spring.mail} at it. It speaks just enough SMTP
+ * for {@link org.springframework.mail.javamail.JavaMailSender}: several messages per connection are accepted, so
+ * batched delivery behaves as against a real relay. An optional delay per message simulates a slow relay.
+ */
+@Slf4j
+@Component
+@Profile("smtp-stub")
+public class LocalSmtpStub implements SmartLifecycle {
+
+    private final int port;
+    private final long latency;
+    private final Counter received;
+    private final AtomicLong connections = new AtomicLong();
+
+    private volatile ServerSocket serverSocket;
+    private ExecutorService sessions;
+
+    /**
+     * Creates the stub.
+     *
+     * @param port          the port listened on, on the loopback interface
+     * @param latency       the delay before accepting each message, in milliseconds
+     * @param meterRegistry the registry exposing the number of received messages
+     */
+    public LocalSmtpStub(
+            @Value("${spring.mail.port}") int port,
+            @Value("${application.diagnostics.smtp-stub.latency:0}") long latency,
+            MeterRegistry meterRegistry) {
+        this.port = port;
+        this.latency = latency;
+        this.received = meterRegistry.counter("auth.smtp.stub.received");
+    }
+
+    /**
+     * Starts listening before the outbox worker can send anything.
+     */
+    @Override
+    public void start() {
+        try {
+            serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not start the SMTP stub on port " + port, e);
+        }
+
+        sessions = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "smtp-stub-" + connections.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Thread acceptor = new Thread(this::accept, "smtp-stub-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        log.info("SMTP stub listening on port {}", port);
+    }
+
+    /**
+     * Stops listening and drops the open connections.
+     */
+    @Override
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            log.debug("Could not close the SMTP stub", e);
+        }
+
+        sessions.shutdownNow();
+        serverSocket = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRunning() {
+        return serverSocket != null;
+    }
+
+    /**
+     * Returns the number of messages received since startup.
+     *
+     * @return the number of messages
+     */
+    public long receivedCount() {
+        return (long) received.count();
+    }
+
+    /**
+     * Hands every incoming connection to a session thread until the socket is closed.
+     */
+    private void accept() {
+        ServerSocket socket = serverSocket;
+
+        while (!socket.isClosed()) {
+            try {
+                Socket client = socket.accept();
+                sessions.execute(() -> serve(client));
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    log.warn("SMTP stub could not accept a connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs one SMTP session, counting every message whose data is complete.
+     *
+     * @param client the connection of the client
+     */
+    private void serve(Socket client) {
+        try (client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+             PrintWriter out = new PrintWriter(client.getOutputStream(), false, StandardCharsets.US_ASCII)) {
+            reply(out, "220 localhost SMTP stub");
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+
+                switch (command) {
+                    case "EHLO", "HELO" -> reply(out, "250 localhost");
+                    case "MAIL", "RCPT", "RSET", "NOOP" -> reply(out, "250 OK");
+                    case "DATA" -> {
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        skipData(in);
+                        pause();
+                        received.increment();
+                        reply(out, "250 OK");
+                    }
+                    case "QUIT" -> {
+                        reply(out, "221 Bye");
+                        return;
+                    }
+                    default -> reply(out, "502 Command not implemented");
+                }
+            }
+        } catch (IOException e) {
+            log.debug("SMTP stub session ended", e);
+        }
+    }
+
+    private static void skipData(BufferedReader in) throws IOException {
+        String line;
+
+        while ((line = in.readLine()) != null && !line.equals(".")) {
+            // The content is discarded.
+        }
+    }
+
+    private static void reply(PrintWriter out, String line) {
+        out.print(line + "\r\n");
+        out.flush();
+    }
+
+    private void pause() {
+        if (latency <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
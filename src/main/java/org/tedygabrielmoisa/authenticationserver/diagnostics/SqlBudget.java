@@ -0,0 +1,54 @@
+package org.tedygabrielmoisa.authenticationserver.diagnostics;
+
+import java.util.Map;
+
+/**
+ * The most statements, entity loads and flushes an endpoint may issue per request, -1 leaving a count unchecked.
+ * <p>
+ * The declared budgets follow the current code paths with a cold principal cache: raising one should be a deliberate
+ * part of the change that needs it. {@code SqlBudgetIntegrationTest} drives every endpoint against an embedded database
+ * and fails the build when one exceeds its budget.
+ *
+ * @param statements the maximum number of SQL statements
+ * @param loads      the maximum number of loaded entities
+ * @param flushes    the maximum number of flushes
+ */
+public record SqlBudget(int statements, int loads, int flushes) {
+
+    /**
+     * The budgets of the endpoints, by HTTP method and mapping pattern.
+     */
+    static final Map<String, SqlBudget> DECLARED = Map.ofEntries(
+            Map.entry("GET /auth/login", new SqlBudget(7, 2, 2)),
+            Map.entry("POST /auth/register", new SqlBudget(2, 0, 1)),
+            Map.entry("GET /auth/checkAuthenticated", new SqlBudget(6, 2, 2)),
+            Map.entry("POST /auth/refresh", new SqlBudget(5, 1, 1)),
+            Map.entry("GET /auth/logout", new SqlBudget(5, 1, 1)),
+            Map.entry("POST /auth/totp", new SqlBudget(4, 1, 1)),
+            Map.entry("POST /auth/totp/confirm", new SqlBudget(6, 1, 1)),
+            Map.entry("DELETE /auth/totp", new SqlBudget(5, 1, 1)),
+            Map.entry("GET /.well-known/jwks.json", new SqlBudget(0, 0, 0)),
+            Map.entry("POST /admin/retention/run", new SqlBudget(10, 1, 4)),
+            Map.entry("PUT /admin/users/{id}/role", new SqlBudget(6, 1, 1)),
+            Map.entry("GET /pokemons", new SqlBudget(2, -1, 1)),
+            Map.entry("POST /pokemons/create", new SqlBudget(3, 1, 1)),
+            Map.entry("PUT /pokemons/update/{id}", new SqlBudget(3, 1, 1)),
+            Map.entry("DELETE /pokemons/delete/{id}", new SqlBudget(3, 1, 1))
+    );
+
+    /**
+     * Checks a recording against the budget.
+     *
+     * @param recording the recording of one request
+     * @return true if no checked count exceeds the budget
+     */
+    boolean allows(SqlRecording recording) {
+        return within(recording.getStatements().size(), statements)
+                && within(recording.getLoads(), loads)
+                && within(recording.getFlushes(), flushes);
+    }
+
+    private static boolean within(int count, int limit) {
+        return limit < 0 || count <= limit;
+    }
+}
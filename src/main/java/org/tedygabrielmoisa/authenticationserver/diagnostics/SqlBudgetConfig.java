@@ -0,0 +1,78 @@
+package org.tedygabrielmoisa.authenticationserver.diagnostics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Configuration class wiring the per-endpoint SQL budget checks, only when enabled.
+ * The checks record every statement, so they are meant for test and staging environments.
+ */
+@Configuration
+@ConditionalOnProperty(name = "application.diagnostics.sql-budget.enabled", havingValue = "true")
+public class SqlBudgetConfig {
+
+    /**
+     * Provides the recorder shared by the Hibernate hooks and the filter.
+     *
+     * @return the {@link SqlRecorder}
+     */
+    @Bean
+    public SqlRecorder sqlRecorder() {
+        return new SqlRecorder();
+    }
+
+    /**
+     * Registers the recorder as the Hibernate statement inspector.
+     *
+     * @param sqlRecorder the recorder
+     * @return the {@link HibernatePropertiesCustomizer} setting the inspector
+     */
+    @Bean
+    public HibernatePropertiesCustomizer sqlRecorderInspector(SqlRecorder sqlRecorder) {
+        return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, sqlRecorder);
+    }
+
+    /**
+     * Registers the recorder as a load and flush listener once the session factory is built.
+     *
+     * @param entityManagerFactory the entity manager factory
+     * @param sqlRecorder          the recorder
+     * @return the {@link SmartInitializingSingleton} appending the listeners
+     */
+    @Bean
+    public SmartInitializingSingleton sqlRecorderListeners(EntityManagerFactory entityManagerFactory, SqlRecorder sqlRecorder) {
+        return () -> {
+            EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                    .getServiceRegistry()
+                    .getService(EventListenerRegistry.class);
+
+            registry.appendListeners(EventType.POST_LOAD, sqlRecorder);
+            registry.appendListeners(EventType.FLUSH, sqlRecorder);
+        };
+    }
+
+    /**
+     * Registers the budget filter ahead of the security filters, so that their lookups are counted too.
+     *
+     * @param sqlRecorder   the recorder
+     * @param meterRegistry the registry exposing the statement counts and the exceeded budgets
+     * @return the {@link FilterRegistrationBean} of the {@link SqlBudgetFilter}
+     */
+    @Bean
+    public FilterRegistrationBean<SqlBudgetFilter> sqlBudgetFilter(SqlRecorder sqlRecorder, MeterRegistry meterRegistry) {
+        FilterRegistrationBean<SqlBudgetFilter> registration = new FilterRegistrationBean<>(new SqlBudgetFilter(sqlRecorder, meterRegistry));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+}
@@ -0,0 +1,141 @@
+package org.tedygabrielmoisa.authenticationserver.diagnostics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.NonNull;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Filter recording the SQL issued while serving each request and checking it against the {@link SqlBudget} of the
+ * endpoint, including the work of the security filters.
+ * <p>
+ * The budgets are enforced by the integration tests, which read the recording of each request from the
+ * {@link #RECORDING_ATTRIBUTE} request attribute. Enabled outside of tests, the filter reports regressions that only
+ * show with real data: the statements of the first request of an endpoint that stays within budget become its
+ * baseline, and a request over budget is logged with the statements added to and missing from that baseline, counted
+ * in {@code auth.sql.budget.exceeded} and flagged with the {@value #BUDGET_HEADER} header.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class SqlBudgetFilter extends OncePerRequestFilter {
+
+    /**
+     * The response header set on requests exceeding their budget.
+     */
+    public static final String BUDGET_HEADER = "X-Sql-Budget-Exceeded";
+
+    /**
+     * The request attribute holding the {@link SqlRecording} of the request.
+     */
+    public static final String RECORDING_ATTRIBUTE = SqlBudgetFilter.class.getName() + ".recording";
+
+    private final SqlRecorder recorder;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, List<String>> baselines = new ConcurrentHashMap<>();
+
+    /**
+     * Records the request and checks its budget once it has been served.
+     *
+     * @param request     the HTTP request
+     * @param response    the HTTP response
+     * @param filterChain the filter chain
+     * @throws ServletException if a servlet error occurs
+     * @throws IOException      if an I/O error occurs
+     */
+    @Override
+    protected void doFilterInternal(
+            @NonNull HttpServletRequest request,
+            @NonNull HttpServletResponse response,
+            @NonNull FilterChain filterChain) throws ServletException, IOException {
+        SqlRecording recording = recorder.start();
+        request.setAttribute(RECORDING_ATTRIBUTE, recording);
+
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            recorder.stop();
+        }
+
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+
+        if (pattern != null) {
+            check(request.getMethod() + " " + pattern, recording, response);
+        }
+    }
+
+    /**
+     * Checks a recording against the budget of its endpoint.
+     *
+     * @param endpoint  the HTTP method and mapping pattern of the endpoint
+     * @param recording the recording of the request
+     * @param response  the HTTP response
+     */
+    private void check(String endpoint, SqlRecording recording, HttpServletResponse response) {
+        SqlBudget budget = SqlBudget.DECLARED.get(endpoint);
+
+        meterRegistry.summary("auth.sql.statements", "endpoint", endpoint).record(recording.getStatements().size());
+
+        if (budget == null) {
+            return;
+        }
+
+        if (budget.allows(recording)) {
+            baselines.putIfAbsent(endpoint, List.copyOf(recording.getStatements()));
+            return;
+        }
+
+        meterRegistry.counter("auth.sql.budget.exceeded", "endpoint", endpoint).increment();
+
+        if (!response.isCommitted()) {
+            response.setHeader(BUDGET_HEADER, "true");
+        }
+
+        log.warn("SQL budget exceeded by {}: {} statements, {} loads, {} flushes, budget {}{}",
+                endpoint,
+                recording.getStatements().size(),
+                recording.getLoads(),
+                recording.getFlushes(),
+                budget,
+                diff(baselines.get(endpoint), recording.getStatements()));
+    }
+
+    /**
+     * Lists the statements added to and missing from the baseline, counting repeated statements.
+     *
+     * @param baseline   the baseline statements, or null if none was recorded yet
+     * @param statements the statements of the request
+     * @return the diff, one statement per line
+     */
+    static String diff(List<String> baseline, List<String> statements) {
+        StringBuilder diff = new StringBuilder();
+
+        if (baseline == null) {
+            statements.forEach(sql -> diff.append("\n  ").append(sql));
+            return diff.toString();
+        }
+
+        List<String> missing = new ArrayList<>(baseline);
+
+        for (String sql : statements) {
+            if (!missing.remove(sql)) {
+                diff.append("\n+ ").append(sql);
+            }
+        }
+
+        missing.forEach(sql -> diff.append("\n- ").append(sql));
+
+        return diff.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package org.tedygabrielmoisa.authenticationserver.diagnostics;
+
+import org.hibernate.event.spi.FlushEvent;
+import org.hibernate.event.spi.FlushEventListener;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PostLoadEventListener;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Hibernate hooks recording every statement, entity load and flush into the {@link SqlRecording} of the current
+ * thread. Outside of a recording they do nothing, so background jobs and asynchronous work are never counted.
+ */
+public class SqlRecorder implements StatementInspector, PostLoadEventListener, FlushEventListener {
+
+    private final ThreadLocal<SqlRecording> current = new ThreadLocal<>();
+
+    /**
+     * Starts recording on the current thread.
+     *
+     * @return the new recording
+     */
+    SqlRecording start() {
+        SqlRecording recording = new SqlRecording();
+        current.set(recording);
+        return recording;
+    }
+
+    /**
+     * Stops recording on the current thread.
+     */
+    void stop() {
+        current.remove();
+    }
+
+    /**
+     * Records a statement about to be prepared, leaving it unchanged.
+     *
+     * @param sql the statement
+     * @return the same statement
+     */
+    @Override
+    public String inspect(String sql) {
+        SqlRecording recording = current.get();
+
+        if (recording != null) {
+            recording.statement(sql);
+        }
+
+        return sql;
+    }
+
+    /**
+     * Records an entity loaded into the persistence context.
+     *
+     * @param event the load event
+     */
+    @Override
+    public void onPostLoad(PostLoadEvent event) {
+        SqlRecording recording = current.get();
+
+        if (recording != null) {
+            recording.load();
+        }
+    }
+
+    /**
+     * Records a flush of the persistence context, explicit or on commit.
+     *
+     * @param event the flush event
+     */
+    @Override
+    public void onFlush(FlushEvent event) {
+        SqlRecording recording = current.get();
+
+        if (recording != null) {
+            recording.flush();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.tedygabrielmoisa.authenticationserver.diagnostics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The statements, entity loads and flushes issued by Hibernate on one thread while a request is served.
+ */
+final class SqlRecording {
+
+    private final List<String> statements = new ArrayList<>();
+    private int loads;
+    private int flushes;
+
+    void statement(String sql) {
+        statements.add(sql.replaceAll("\\s+", " ").trim());
+    }
+
+    void load() {
+        loads++;
+    }
+
+    void flush() {
+        flushes++;
+    }
+
+    List<String> getStatements() {
+        return statements;
+    }
+
+    int getLoads() {
+        return loads;
+    }
+
+    int getFlushes() {
+        return flushes;
+    }
+}
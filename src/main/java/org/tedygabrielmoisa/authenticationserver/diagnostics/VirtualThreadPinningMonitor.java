@@ -0,0 +1,158 @@
+package org.tedygabrielmoisa.authenticationserver.diagnostics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.thread.Threading;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Reports virtual threads pinned to their carrier thread, in the virtual thread mode only.
+ * <p>
+ * A virtual thread blocking inside a {@code synchronized} block or a native frame keeps its carrier, so a few pinning
+ * hotspots, typically in JDBC drivers or libraries, can starve the whole carrier pool. The monitor streams the
+ * {@code jdk.VirtualThreadPinned} JFR events longer than the threshold and files them by pinning site, the first frame
+ * outside of the JDK: the time pinned is recorded by {@code auth.virtual.pinned} and the stack of each new site is
+ * logged once.
+ */
+@Slf4j
+@Component
+@ConditionalOnThreading(Threading.VIRTUAL)
+@ConditionalOnProperty(name = "application.diagnostics.pinning.enabled", havingValue = "true")
+public class VirtualThreadPinningMonitor implements SmartLifecycle {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int LOGGED_FRAMES = 12;
+
+    private final Duration threshold;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> sites = new ConcurrentHashMap<>();
+
+    private volatile RecordingStream stream;
+
+    /**
+     * Creates the monitor.
+     *
+     * @param threshold     the shortest pinning reported, in milliseconds
+     * @param meterRegistry the registry exposing the pinning times by site
+     */
+    public VirtualThreadPinningMonitor(
+            @Value("${application.diagnostics.pinning.threshold}") long threshold,
+            MeterRegistry meterRegistry) {
+        this.threshold = Duration.ofMillis(threshold);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Starts streaming the pinning events.
+     */
+    @Override
+    public void start() {
+        RecordingStream recording = new RecordingStream();
+
+        recording.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        recording.onEvent(PINNED_EVENT, this::onPinned);
+        recording.startAsync();
+
+        stream = recording;
+    }
+
+    /**
+     * Stops streaming the pinning events.
+     */
+    @Override
+    public void stop() {
+        stream.close();
+        stream = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRunning() {
+        return stream != null;
+    }
+
+    /**
+     * Records a pinning event against its site, logging the stack the first time the site shows up.
+     *
+     * @param event the {@code jdk.VirtualThreadPinned} event
+     */
+    private void onPinned(RecordedEvent event) {
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        String site = pinningSite(stackTrace);
+
+        Timer timer = sites.get(site);
+
+        if (timer == null) {
+            timer = sites.computeIfAbsent(site, key -> Timer.builder("auth.virtual.pinned")
+                    .tag("site", key)
+                    .register(meterRegistry));
+
+            log.warn("Virtual thread pinned for {} ms at {}:\n{}", event.getDuration().toMillis(), site, format(stackTrace));
+        }
+
+        timer.record(event.getDuration());
+    }
+
+    /**
+     * Returns the first frame outside of the JDK, which is where the application or a library pinned the thread.
+     *
+     * @param stackTrace the stack of the pinned thread
+     * @return the class and method of the frame, or {@code unknown} without a stack
+     */
+    private static String pinningSite(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "unknown";
+        }
+
+        RecordedFrame fallback = null;
+
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            if (!frame.isJavaFrame()) {
+                continue;
+            }
+
+            if (fallback == null) {
+                fallback = frame;
+            }
+
+            String type = frame.getMethod().getType().getName();
+
+            if (!type.startsWith("java.") && !type.startsWith("jdk.") && !type.startsWith("sun.")) {
+                return nameOf(frame);
+            }
+        }
+
+        return fallback != null ? nameOf(fallback) : "unknown";
+    }
+
+    private static String nameOf(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName();
+    }
+
+    private static String format(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "\t(no stack trace)";
+        }
+
+        return stackTrace.getFrames().stream()
+                .limit(LOGGED_FRAMES)
+                .map(frame -> "\tat " + nameOf(frame) + ":" + frame.getLineNumber())
+                .collect(Collectors.joining("\n"));
+    }
+}
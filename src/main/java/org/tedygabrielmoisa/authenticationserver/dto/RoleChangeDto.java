@@ -0,0 +1,22 @@
+package org.tedygabrielmoisa.authenticationserver.dto;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.tedygabrielmoisa.authenticationserver.enums.Role;
+
+/**
+ * Data Transfer Object (DTO) for role change requests.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RoleChangeDto {
+
+    /**
+     * The new role of the user.
+     */
+    @NotNull
+    private Role role;
+}
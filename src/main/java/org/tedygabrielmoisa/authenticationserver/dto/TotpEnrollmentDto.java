@@ -0,0 +1,29 @@
+package org.tedygabrielmoisa.authenticationserver.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Data Transfer Object (DTO) for the enrollment of an authenticator app.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class TotpEnrollmentDto {
+
+    /**
+     * The base32 TOTP secret, for manual entry.
+     */
+    @JsonProperty("secret")
+    private String secret;
+
+    /**
+     * The otpauth URI, usually rendered as a QR code.
+     */
+    @JsonProperty("uri")
+    private String uri;
+}
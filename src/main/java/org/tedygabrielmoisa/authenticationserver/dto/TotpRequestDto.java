@@ -0,0 +1,27 @@
+package org.tedygabrielmoisa.authenticationserver.dto;
+
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Data Transfer Object (DTO) for the requests changing the authenticator app of a user.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TotpRequestDto {
+
+    /**
+     * The current password of the user, required to enroll or remove an authenticator app.
+     */
+    @Size(min = 5, max = 60)
+    private String password;
+
+    /**
+     * A TOTP code, of the active secret to replace or remove it, or of the pending secret to confirm it.
+     */
+    @Size(min = 6, max = 6)
+    private String code;
+}
@@ -0,0 +1,62 @@
+package org.tedygabrielmoisa.authenticationserver.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+import org.tedygabrielmoisa.authenticationserver.enums.AuthEventType;
+
+import java.time.LocalDateTime;
+
+/**
+ * Entity class representing a revocation event in the append-only change feed tailed by every instance.
+ */
+@Entity
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "auth_event", indexes = @Index(name = "idx_auth_event_created_at", columnList = "created_at"))
+public class AuthEvent {
+
+  /**
+   * The unique, monotonically increasing identifier of the event.
+   */
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  public Long id;
+
+  /**
+   * The kind of event.
+   */
+  @Enumerated(EnumType.STRING)
+  @JdbcTypeCode(SqlTypes.VARCHAR)
+  @Column(nullable = false, length = 32)
+  public AuthEventType type;
+
+  /**
+   * The identifier of the user the event is about.
+   */
+  @Column(name = "user_id", nullable = false)
+  public Integer userId;
+
+  /**
+   * The email of the user the event is about.
+   */
+  @Column(nullable = false)
+  public String email;
+
+  /**
+   * The token epoch of the user after the event, or null if the event did not change it.
+   */
+  @Column(name = "token_epoch")
+  public Long tokenEpoch;
+
+  /**
+   * The time when the event was recorded.
+   */
+  @Builder.Default
+  @Column(name = "created_at", nullable = false)
+  public LocalDateTime createdAt = LocalDateTime.now();
+}
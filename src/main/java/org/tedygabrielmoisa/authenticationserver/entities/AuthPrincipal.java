@@ -0,0 +1,61 @@
+package org.tedygabrielmoisa.authenticationserver.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.tedygabrielmoisa.authenticationserver.enums.Role;
+import org.tedygabrielmoisa.authenticationserver.enums.Status;
+
+/**
+ * Narrow read model of a {@link User} holding only the columns the authentication path needs.
+ * It is selected with a constructor expression, so the profile columns are neither read nor hydrated.
+ */
+@Getter
+@AllArgsConstructor
+public final class AuthPrincipal {
+
+  /**
+   * The unique identifier of the user.
+   */
+  private final Integer id;
+
+  /**
+   * The email of the user, used as the username.
+   */
+  private final String email;
+
+  /**
+   * The password hash of the user.
+   */
+  private final String passwordHash;
+
+  /**
+   * The role of the user.
+   */
+  private final Role role;
+
+  /**
+   * The status of the user account.
+   */
+  private final Status status;
+
+  /**
+   * The token epoch of the user.
+   */
+  private final long tokenEpoch;
+
+  /**
+   * The sealed TOTP secret of the user, or null if no authenticator app is enrolled.
+   */
+  private final byte[] sealedTotpSecret;
+
+  /**
+   * Creates the read model of an already loaded user.
+   *
+   * @param user the user
+   * @return the principal of the user
+   */
+  public static AuthPrincipal of(User user) {
+    return new AuthPrincipal(user.getId(), user.getEmail(), user.getPasswordHash(), user.getRole(), user.getStatus(), user.getTokenEpoch(),
+            user.getSealedTotpSecret());
+  }
+}
@@ -0,0 +1,88 @@
+package org.tedygabrielmoisa.authenticationserver.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Entity class representing an email waiting to be delivered by the outbox worker.
+ * Rows are written in the transaction producing the email, deleted once delivered and purged once expired.
+ */
+@Entity
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "email_outbox", indexes = {
+    @Index(name = "idx_email_outbox_due", columnList = "failed, next_attempt_at"),
+    @Index(name = "idx_email_outbox_expires_at", columnList = "expires_at")
+})
+public class EmailOutbox {
+
+  /**
+   * The unique identifier of the email.
+   */
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  public Long id;
+
+  /**
+   * The email address of the recipient.
+   */
+  @Column(nullable = false)
+  public String recipient;
+
+  /**
+   * The subject line of the email.
+   */
+  @Column(nullable = false)
+  public String subject;
+
+  /**
+   * The main content of the email, encrypted with AES-GCM: the nonce followed by the ciphertext and its tag.
+   */
+  @Column(name = "sealed_body", nullable = false, columnDefinition = "blob")
+  public byte[] sealedBody;
+
+  /**
+   * The number of failed delivery attempts.
+   */
+  @Builder.Default
+  @Column(nullable = false)
+  public int attempts = 0;
+
+  /**
+   * The time from which the email may be picked up, pushed back while a worker holds it and after a failure.
+   */
+  @Builder.Default
+  @Column(name = "next_attempt_at", nullable = false)
+  public LocalDateTime nextAttemptAt = LocalDateTime.now();
+
+  /**
+   * The time after which the email is no longer sent, that of the code it carries.
+   */
+  @Column(name = "expires_at", nullable = false)
+  public LocalDateTime expiresAt;
+
+  /**
+   * Flag indicating that delivery was abandoned after the last allowed attempt.
+   */
+  @Builder.Default
+  @Column(nullable = false)
+  public boolean failed = false;
+
+  /**
+   * The error of the last failed attempt.
+   */
+  @Column(name = "last_error", length = 255)
+  public String lastError;
+
+  /**
+   * The time when the email was queued.
+   */
+  @Builder.Default
+  @Column(name = "created_at", nullable = false)
+  public LocalDateTime createdAt = LocalDateTime.now();
+}
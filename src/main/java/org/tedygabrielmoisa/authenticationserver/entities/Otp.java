@@ -16,7 +16,7 @@ import java.time.LocalDateTime;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-@Table(name = "otps")
+@Table(name = "otps", indexes = @Index(name = "idx_otps_expires_at", columnList = "expires_at"))
 public class Otp {
 
     /**
@@ -34,9 +34,23 @@ public class Otp {
     private User user;
 
     /**
-     * The One-Time Password.
+     * The HMAC-SHA256 of the salt and the code, keyed with a server secret.
      */
-    private String otp;
+    @Column(name = "otp_hash", columnDefinition = "binary(32)")
+    private byte[] otpHash;
+
+    /**
+     * The random salt of the code.
+     */
+    @Column(columnDefinition = "binary(16)")
+    private byte[] salt;
+
+    /**
+     * The number of verifications already attempted with the code.
+     */
+    @Builder.Default
+    @Column(nullable = false, columnDefinition = "int default 0")
+    private int attempts = 0;
 
     /**
      * The time when the OTP was created.
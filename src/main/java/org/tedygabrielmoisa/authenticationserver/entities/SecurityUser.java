@@ -9,11 +9,11 @@ import java.util.Collection;
 import java.util.List;
 
 /**
- * Implementation of {@link UserDetails} for Spring Security that wraps a {@link User} entity.
+ * Implementation of {@link UserDetails} for Spring Security that wraps the {@link AuthPrincipal} of a user.
  */
 @AllArgsConstructor
 public class SecurityUser implements UserDetails {
-  private final User user;
+  private final AuthPrincipal user;
 
   /**
    * Returns the authorities granted to the user.
@@ -0,0 +1,61 @@
+package org.tedygabrielmoisa.authenticationserver.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+import org.tedygabrielmoisa.authenticationserver.enums.SigningKeyState;
+
+import java.time.Instant;
+
+/**
+ * Entity class representing an asymmetric JWT signing key shared by every instance.
+ */
+@Entity
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "signing_key")
+public class SigningKey {
+
+  /**
+   * The key id written to the {@code kid} header of the tokens.
+   */
+  @Id
+  @Column(length = 16)
+  public String kid;
+
+  /**
+   * The JWS name of the algorithm the key signs with.
+   */
+  @Column(nullable = false, length = 8)
+  public String algorithm;
+
+  /**
+   * The PKCS#8 encoding of the private key, sealed with a key derived from the JWT secret.
+   */
+  @Column(name = "sealed_private_key", nullable = false, columnDefinition = "blob")
+  public byte[] sealedPrivateKey;
+
+  /**
+   * The X.509 encoding of the public key.
+   */
+  @Column(name = "public_key", nullable = false, columnDefinition = "blob")
+  public byte[] publicKey;
+
+  /**
+   * The lifecycle state of the key.
+   */
+  @Enumerated(EnumType.STRING)
+  @JdbcTypeCode(SqlTypes.VARCHAR)
+  @Column(nullable = false, length = 16)
+  public SigningKeyState state;
+
+  /**
+   * The time the key entered its current state.
+   */
+  @Column(nullable = false)
+  public Instant since;
+}
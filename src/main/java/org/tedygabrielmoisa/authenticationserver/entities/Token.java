@@ -3,6 +3,8 @@ package org.tedygabrielmoisa.authenticationserver.entities;
 import jakarta.persistence.*;
 import lombok.*;
 
+import java.time.LocalDateTime;
+
 /**
  * Entity class representing a token.
  */
@@ -12,6 +14,11 @@ import lombok.*;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
+@Table(indexes = {
+    @Index(name = "idx_token_expires_at", columnList = "expires_at"),
+    @Index(name = "idx_token_revoked", columnList = "revoked"),
+    @Index(name = "idx_token_family_id", columnList = "family_id")
+})
 public class Token {
 
   /**
@@ -22,11 +29,18 @@ public class Token {
   public Integer id;
 
   /**
-   * The token string which is unique across all tokens.
+   * The legacy token string, only present on rows created before refresh tokens were stored as digests
+   * and cleared by the startup migration. Not unique, so that it needs no index once every row is converted.
    */
-  @Column(unique = true)
+  @Column
   public String token;
 
+  /**
+   * The SHA-256 digest of the token, which is unique across all tokens.
+   */
+  @Column(name = "token_hash", unique = true, columnDefinition = "binary(32)")
+  public byte[] tokenHash;
+
   /**
    * Flag indicating whether the token has been revoked.
    */
@@ -37,6 +51,31 @@ public class Token {
    */
   public boolean expired;
 
+  /**
+   * Flag indicating whether the token was exchanged on the refresh endpoint.
+   * Presenting a rotated token again is treated as reuse of a stolen token.
+   */
+  public boolean rotated;
+
+  /**
+   * The time when the token was exchanged, or null if it was not.
+   */
+  @Column(name = "rotated_at")
+  public LocalDateTime rotatedAt;
+
+  /**
+   * The identifier shared by a login's refresh token and every token it was rotated into.
+   */
+  @Column(name = "family_id", columnDefinition = "char(36)")
+  public String familyId;
+
+  /**
+   * The time when the token expires, used by the retention job to purge dead rows.
+   * Null on rows created before it was recorded.
+   */
+  @Column(name = "expires_at")
+  public LocalDateTime expiresAt;
+
   /**
    * The user to whom the token is associated.
    * This is a many-to-one relationship as a user can have multiple tokens.
@@ -3,6 +3,7 @@ package org.tedygabrielmoisa.authenticationserver.entities;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.*;
+import org.tedygabrielmoisa.authenticationserver.authentication.PrincipalCacheInvalidator;
 import org.tedygabrielmoisa.authenticationserver.enums.Gender;
 import org.tedygabrielmoisa.authenticationserver.enums.Role;
 import org.tedygabrielmoisa.authenticationserver.enums.Status;
@@ -20,6 +21,7 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @AllArgsConstructor
 @Table(name = "users")
+@EntityListeners(PrincipalCacheInvalidator.class)
 public class User {
 
   /**
@@ -36,10 +38,10 @@ public class User {
   private String email;
 
   /**
-   * Password hash of the user. It is ignored in JSON responses and cannot be null.
+   * Password hash of the user, carrying its algorithm and cost. It is ignored in JSON responses and cannot be null.
    */
   @JsonIgnore
-  @Column(nullable = false, length = 60)
+  @Column(nullable = false, length = 128)
   private String passwordHash;
 
   /**
@@ -127,6 +129,61 @@ public class User {
   @Column(nullable = false, length = 10)
   private Role role = Role.USER;
 
+  /**
+   * Generation counter of the user's tokens. It is embedded in every access token and bumped on logout,
+   * so that access tokens minted before the bump are no longer accepted.
+   */
+  @JsonIgnore
+  @Builder.Default
+  @Column(nullable = false, columnDefinition = "bigint default 0")
+  private long tokenEpoch = 0;
+
+  /**
+   * Legacy plain base32 TOTP secret, sealed into {@link #sealedTotpSecret} and cleared at startup.
+   */
+  @JsonIgnore
+  @Column(length = 32)
+  private String totpSecret;
+
+  /**
+   * TOTP secret of the user's authenticator app, sealed and bound to the user id, or null if none is enrolled.
+   */
+  @JsonIgnore
+  @Column(name = "sealed_totp_secret", columnDefinition = "varbinary(64)")
+  private byte[] sealedTotpSecret;
+
+  /**
+   * Sealed TOTP secret handed out by the last enrollment, which becomes the active one once the user submits a code
+   * it generated, or null if no enrollment is pending.
+   */
+  @JsonIgnore
+  @Column(name = "pending_totp_secret", columnDefinition = "varbinary(64)")
+  private byte[] pendingTotpSecret;
+
+  /**
+   * Time step of the last TOTP code accepted for the user, so that neither it nor an earlier one is accepted again
+   * on any instance.
+   */
+  @JsonIgnore
+  @Builder.Default
+  @Column(nullable = false, columnDefinition = "bigint default 0")
+  private long totpLastStep = 0;
+
+  /**
+   * Random identifier of the TOTP challenge last handed out by the password step, or null if it was used.
+   * Only this challenge is accepted, so a new password step voids the previous one.
+   */
+  @JsonIgnore
+  private Long totpChallenge;
+
+  /**
+   * Number of codes already attempted with the current TOTP challenge, or with the pending secret.
+   */
+  @JsonIgnore
+  @Builder.Default
+  @Column(nullable = false, columnDefinition = "int default 0")
+  private int totpAttempts = 0;
+
   /**
    * Address of the user.
    */
@@ -0,0 +1,27 @@
+package org.tedygabrielmoisa.authenticationserver.enums;
+
+/**
+ * Enum representing the kinds of events shared between the instances of the authentication server.
+ */
+public enum AuthEventType {
+  /**
+   * Indicates that the user logged out: every session ended and the token epoch was bumped.
+   */
+  LOGOUT,
+
+  /**
+   * Indicates that the role of the user changed: cached authorities are stale and the token epoch was bumped, since
+   * access tokens may carry the previous role.
+   */
+  ROLE_CHANGED,
+
+  /**
+   * Indicates that a new user registered, so negative lookups of its email are stale.
+   */
+  REGISTERED,
+
+  /**
+   * Indicates that the user enrolled, replaced or removed an authenticator app, so cached TOTP secrets are stale.
+   */
+  TOTP_CHANGED
+}
@@ -0,0 +1,21 @@
+package org.tedygabrielmoisa.authenticationserver.enums;
+
+/**
+ * Enum representing the lifecycle state of a JWT signing key in the key ring.
+ */
+public enum SigningKeyState {
+  /**
+   * The key is published in the JWKS but not yet used for signing, so that verifiers can cache it in advance.
+   */
+  PENDING,
+
+  /**
+   * The key is used to sign newly issued tokens.
+   */
+  ACTIVE,
+
+  /**
+   * The key no longer signs tokens but is kept until every token it signed has expired.
+   */
+  RETIRING
+}
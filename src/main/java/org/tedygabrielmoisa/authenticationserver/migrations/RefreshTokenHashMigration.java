@@ -0,0 +1,74 @@
+package org.tedygabrielmoisa.authenticationserver.migrations;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.tedygabrielmoisa.authenticationserver.entities.Token;
+import org.tedygabrielmoisa.authenticationserver.repositories.TokenRepository;
+import org.tedygabrielmoisa.authenticationserver.services.TokenDigests;
+import org.tedygabrielmoisa.authenticationserver.stores.JpaTokenStore;
+
+import java.util.List;
+
+/**
+ * Startup migration replacing the plain refresh token strings of existing rows with their SHA-256 digest.
+ * Rows are converted in small batches, each in its own transaction, and the migration is a no-op once every row
+ * has a digest. Until it has run, the {@link JpaTokenStore} still falls back to the legacy string lookup.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RefreshTokenHashMigration implements ApplicationRunner {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final TokenRepository tokenRepository;
+    private final ObjectProvider<JpaTokenStore> jpaTokenStore;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Converts every legacy token row, then turns off the legacy lookup of the token store.
+     *
+     * @param args the application arguments
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        int migrated = 0;
+        Integer converted;
+
+        while ((converted = transactionTemplate.execute(status -> migrateBatch())) != null && converted > 0) {
+            migrated += converted;
+        }
+
+        if (migrated > 0) {
+            log.info("Stored {} legacy refresh tokens as SHA-256 digests", migrated);
+        }
+
+        if (converted != null) {
+            jpaTokenStore.ifAvailable(JpaTokenStore::markLegacyTokensMigrated);
+        }
+    }
+
+    /**
+     * Converts one batch of legacy token rows.
+     *
+     * @return the number of converted rows
+     */
+    private int migrateBatch() {
+        List<Token> tokens = tokenRepository.findByTokenHashIsNullAndTokenIsNotNull(PageRequest.of(0, BATCH_SIZE));
+
+        tokens.forEach(token -> {
+            token.setTokenHash(TokenDigests.sha256(token.getToken()));
+            token.setToken(null);
+        });
+
+        tokenRepository.saveAll(tokens);
+
+        return tokens.size();
+    }
+}
@@ -0,0 +1,68 @@
+package org.tedygabrielmoisa.authenticationserver.migrations;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.tedygabrielmoisa.authenticationserver.entities.User;
+import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
+import org.tedygabrielmoisa.authenticationserver.services.TotpService;
+
+import java.util.List;
+
+/**
+ * Startup migration sealing the plain base32 TOTP secrets of existing users. Users are converted in small batches,
+ * each in its own transaction, and the migration is a no-op once no plain secret is left. Until it has run, users
+ * enrolled before the secrets were sealed log in with an emailed OTP.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TotpSecretSealingMigration implements ApplicationRunner {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final UserRepository userRepository;
+    private final TotpService totpService;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Seals every legacy TOTP secret.
+     *
+     * @param args the application arguments
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        int migrated = 0;
+        Integer converted;
+
+        while ((converted = transactionTemplate.execute(status -> migrateBatch())) != null && converted > 0) {
+            migrated += converted;
+        }
+
+        if (migrated > 0) {
+            log.info("Sealed {} legacy TOTP secrets", migrated);
+        }
+    }
+
+    /**
+     * Seals the secrets of one batch of users.
+     *
+     * @return the number of converted users
+     */
+    private int migrateBatch() {
+        List<User> users = userRepository.findByTotpSecretIsNotNull(PageRequest.of(0, BATCH_SIZE));
+
+        users.forEach(user -> {
+            user.setSealedTotpSecret(totpService.sealBase32(user.getId(), user.getTotpSecret()));
+            user.setTotpSecret(null);
+        });
+
+        userRepository.saveAll(users);
+
+        return users.size();
+    }
+}
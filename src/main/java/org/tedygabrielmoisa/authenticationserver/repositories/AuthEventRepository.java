@@ -0,0 +1,60 @@
+package org.tedygabrielmoisa.authenticationserver.repositories;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthEvent;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository interface for appending and tailing {@link AuthEvent} entities.
+ */
+public interface AuthEventRepository extends JpaRepository<AuthEvent, Long> {
+
+  /**
+   * Retrieves the events recorded after the given one, in order, through the primary key.
+   *
+   * @param id       the identifier of the last event already read
+   * @param pageable the maximum number of events to read
+   * @return the next events, ordered by identifier
+   */
+  List<AuthEvent> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+  /**
+   * Retrieves the events with the given identifiers, such as the ones missing from a previous read.
+   *
+   * @param ids the identifiers of the events
+   * @return the events found, in no particular order
+   */
+  List<AuthEvent> findByIdIn(Collection<Long> ids);
+
+  /**
+   * Reads the current time of the database, the clock shared by every instance.
+   *
+   * @return the current database time
+   */
+  @Query("select local datetime")
+  LocalDateTime findDatabaseTime();
+
+  /**
+   * Finds the most recent event.
+   *
+   * @return an {@link Optional} containing the last event, or an empty {@link Optional} if the feed is empty
+   */
+  Optional<AuthEvent> findTopByOrderByIdDesc();
+
+  /**
+   * Retrieves a batch of identifiers of events recorded before the cutoff.
+   *
+   * @param cutoff   the time before which events are no longer needed
+   * @param pageable the size of the batch
+   * @return the identifiers of the old events
+   */
+  @Query("select event.id from AuthEvent event where event.createdAt < :cutoff")
+  List<Long> findIdsCreatedBefore(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+}
@@ -0,0 +1,43 @@
+package org.tedygabrielmoisa.authenticationserver.repositories;
+
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.tedygabrielmoisa.authenticationserver.entities.EmailOutbox;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Repository interface for queuing and claiming {@link EmailOutbox} entities.
+ */
+public interface EmailOutboxRepository extends JpaRepository<EmailOutbox, Long> {
+
+  /**
+   * Locks a batch of unexpired emails due for delivery, skipping the rows another worker has locked,
+   * so that concurrent workers on every instance claim disjoint batches.
+   *
+   * @param now      the current time
+   * @param pageable the size of the batch
+   * @return the due emails, oldest first
+   */
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+  @Query("select email from EmailOutbox email where email.failed = false and email.nextAttemptAt <= :now and email.expiresAt > :now order by email.id")
+  List<EmailOutbox> lockDue(@Param("now") LocalDateTime now, Pageable pageable);
+
+  /**
+   * Retrieves a batch of identifiers of expired emails, whether pending or failed.
+   *
+   * @param now      the current time
+   * @param pageable the size of the batch
+   * @return the identifiers of the expired emails
+   */
+  @Query("select email.id from EmailOutbox email where email.expiresAt <= :now")
+  List<Long> findIdsExpiredBefore(@Param("now") LocalDateTime now, Pageable pageable);
+}
@@ -1,8 +1,14 @@
 package org.tedygabrielmoisa.authenticationserver.repositories;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.tedygabrielmoisa.authenticationserver.entities.Otp;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -26,4 +32,25 @@ public interface OtpRepository extends JpaRepository<Otp, Integer> {
    */
   Optional<Otp> findOtpByUserEmail(String email);
 
+  /**
+   * Takes one verification attempt of an OTP, only if it has attempts left.
+   *
+   * @param id          the ID of the OTP
+   * @param maxAttempts the number of attempts allowed per code
+   * @return the number of updated rows, 0 if the OTP is out of attempts
+   */
+  @Modifying
+  @Query("update Otp otp set otp.attempts = otp.attempts + 1 where otp.id = :id and otp.attempts < :maxAttempts")
+  int takeAttempt(@Param("id") Integer id, @Param("maxAttempts") int maxAttempts);
+
+  /**
+   * Retrieves a batch of identifiers of OTPs that expired before the cutoff.
+   *
+   * @param cutoff   the expiration time before which OTPs are dead
+   * @param pageable the size of the batch
+   * @return the identifiers of the expired OTPs
+   */
+  @Query("select otp.id from Otp otp where otp.expiresAt < :cutoff")
+  List<Integer> findExpiredIds(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+
 }
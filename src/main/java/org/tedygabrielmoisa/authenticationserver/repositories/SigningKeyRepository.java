@@ -0,0 +1,24 @@
+package org.tedygabrielmoisa.authenticationserver.repositories;
+
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.tedygabrielmoisa.authenticationserver.entities.SigningKey;
+
+import java.util.List;
+
+/**
+ * Repository interface for the shared {@link SigningKey} ring.
+ */
+public interface SigningKeyRepository extends JpaRepository<SigningKey, String> {
+
+  /**
+   * Locks every key, so that a single instance at a time creates or rotates the ring.
+   *
+   * @return the keys, oldest state change first
+   */
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("select signingKey from SigningKey signingKey order by signingKey.since, signingKey.kid")
+  List<SigningKey> lockAll();
+}
@@ -1,9 +1,13 @@
 package org.tedygabrielmoisa.authenticationserver.repositories;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.tedygabrielmoisa.authenticationserver.entities.Token;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -14,27 +18,39 @@ import java.util.Optional;
 public interface TokenRepository extends JpaRepository<Token, Integer> {
 
   /**
-   * Retrieves a list of all valid tokens associated with a specific user.
-   * A token is considered valid if it is neither expired nor revoked.
+   * Revokes every token of a specific user that is not revoked yet, in a single statement.
    *
-   * @param userId the unique identifier of the user whose tokens are to be retrieved
-   * @return a list of valid Token entities
+   * @param userId the unique identifier of the user whose tokens are to be revoked
+   * @return the number of revoked tokens
    */
-  @Query(value = """
-            select token from Token token inner join User user\s
-            on token.user.id = user.id\s
-            where user.id = :userId and (token.expired = false or token.revoked = false)\s
-            """)
-  List<Token> findAllValidTokenByUser(Integer userId);
+  @Modifying
+  @Query("update Token token set token.expired = true, token.revoked = true where token.user.id = :userId and token.revoked = false")
+  int revokeAllByUserId(@Param("userId") Integer userId);
 
   /**
-   * Finds a specific token by its token string.
+   * Finds a specific token by its legacy token string.
    *
    * @param token the token string to search for
    * @return an Optional containing the Token if found, otherwise an empty Optional
    */
   Optional<Token> findByToken(String token);
 
+  /**
+   * Finds a specific token by the SHA-256 digest of its token string.
+   *
+   * @param tokenHash the 32 bytes digest to search for
+   * @return an Optional containing the Token if found, otherwise an empty Optional
+   */
+  Optional<Token> findByTokenHash(byte[] tokenHash);
+
+  /**
+   * Retrieves a batch of legacy tokens still stored as plain strings.
+   *
+   * @param pageable the size of the batch
+   * @return the tokens without a digest
+   */
+  List<Token> findByTokenHashIsNullAndTokenIsNotNull(Pageable pageable);
+
   /**
    * Finds tokens associated with a specific user by their user ID.
    *
@@ -42,4 +58,83 @@ public interface TokenRepository extends JpaRepository<Token, Integer> {
    * @return an Optional containing a list of Token entities if found, otherwise an empty Optional
    */
   Optional<List<Token>> findByUserId(Integer userId);
+
+  /**
+   * Retrieves a batch of identifiers of tokens that expired before the cutoff.
+   * Driven by the index on the expiration time.
+   *
+   * @param cutoff   the expiration time before which tokens are dead
+   * @param pageable the size of the batch
+   * @return the identifiers of the expired tokens
+   */
+  @Query("select token.id from Token token where token.expiresAt < :cutoff")
+  List<Integer> findExpiredIds(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+
+  /**
+   * Retrieves a batch of identifiers of revoked tokens.
+   * Driven by the index on the revoked flag.
+   *
+   * @param pageable the size of the batch
+   * @return the identifiers of the revoked tokens
+   */
+  @Query("select token.id from Token token where token.revoked = true and token.rotated = false")
+  List<Integer> findRevokedIds(Pageable pageable);
+
+  /**
+   * Revokes a single token if it is not revoked yet.
+   *
+   * @param tokenHash the digest of the token
+   * @return the number of revoked tokens
+   */
+  @Modifying
+  @Query("update Token token set token.expired = true, token.revoked = true where token.tokenHash = :tokenHash and token.revoked = false")
+  int revokeByTokenHash(@Param("tokenHash") byte[] tokenHash);
+
+  /**
+   * Marks a valid token as rotated, only if it is still neither revoked nor expired. Legacy rows without an
+   * expiration time are only checked against the flags.
+   * Concurrent rotations of the same token are serialized by the row lock, so exactly one of them succeeds.
+   *
+   * @param tokenHash the digest of the presented token
+   * @param now       the current time, recorded as the rotation time
+   * @return 1 if the token was rotated, 0 if it is unknown or no longer valid
+   */
+  @Modifying
+  @Query("""
+            update Token token set token.revoked = true, token.expired = true, token.rotated = true, token.rotatedAt = :now\s
+            where token.tokenHash = :tokenHash and token.revoked = false and token.expired = false\s
+            and (token.expiresAt is null or token.expiresAt > :now)\s
+            """)
+  int rotate(@Param("tokenHash") byte[] tokenHash, @Param("now") LocalDateTime now);
+
+  /**
+   * Inserts the successor of a rotated token, copying its user and family without loading it.
+   *
+   * @param tokenHash     the digest of the rotated token
+   * @param nextTokenHash the digest of the new token
+   * @param expiresAt     the expiration time of the new token
+   * @param familyId      the family assigned when the rotated token has none
+   * @return the number of inserted rows
+   */
+  @Modifying
+  @Query(nativeQuery = true, value = """
+            insert into token (token_hash, expires_at, family_id, user_id, revoked, expired, rotated)\s
+            select :nextTokenHash, :expiresAt, coalesce(family_id, :familyId), user_id, false, false, false\s
+            from token where token_hash = :tokenHash\s
+            """)
+  int insertSuccessor(
+          @Param("tokenHash") byte[] tokenHash,
+          @Param("nextTokenHash") byte[] nextTokenHash,
+          @Param("expiresAt") LocalDateTime expiresAt,
+          @Param("familyId") String familyId);
+
+  /**
+   * Revokes every token of a family that is not revoked yet.
+   *
+   * @param familyId the identifier of the family
+   * @return the number of revoked tokens
+   */
+  @Modifying
+  @Query("update Token token set token.expired = true, token.revoked = true where token.familyId = :familyId and token.revoked = false")
+  int revokeFamily(@Param("familyId") String familyId);
 }
@@ -1,10 +1,21 @@
 package org.tedygabrielmoisa.authenticationserver.repositories;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
 import org.tedygabrielmoisa.authenticationserver.entities.User;
+import org.tedygabrielmoisa.authenticationserver.enums.Role;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * Repository interface for performing CRUD operations on {@link User} entities.
@@ -19,4 +30,197 @@ public interface UserRepository extends JpaRepository<User, Integer> {
    * @return an {@link Optional} containing the found {@link User}, or an empty {@link Optional} if no user found
    */
   Optional<User> findUserByEmail(String email);
+
+  /**
+   * Finds the authentication columns of a user by its email, without loading the profile.
+   *
+   * @param email the email of the user
+   * @return an {@link Optional} containing the {@link AuthPrincipal}, or an empty {@link Optional} if no user found
+   */
+  @Query("""
+          select new org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal(
+            user.id, user.email, user.passwordHash, user.role, user.status, user.tokenEpoch, user.sealedTotpSecret)
+          from User user where user.email = :email
+          """)
+  Optional<AuthPrincipal> findPrincipalByEmail(String email);
+
+  /**
+   * Streams the email of every user. Must be consumed within a transaction and closed.
+   *
+   * @return a {@link Stream} of the emails
+   */
+  @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+  @Query("select user.email from User user")
+  Stream<String> streamAllEmails();
+
+  /**
+   * Finds the token epoch of a user by its email.
+   *
+   * @param email the email of the user
+   * @return an {@link Optional} containing the token epoch, or an empty {@link Optional} if no user found
+   */
+  @Query("select user.tokenEpoch from User user where user.email = :email")
+  Optional<Long> findTokenEpochByEmail(String email);
+
+  /**
+   * Increments the token epoch of a user, invalidating every access token minted before.
+   *
+   * @param userId the ID of the user
+   * @param now    the update time to record
+   * @return the number of updated rows
+   */
+  @Modifying
+  @Query("update User user set user.tokenEpoch = user.tokenEpoch + 1, user.updatedAt = :now where user.id = :userId")
+  int incrementTokenEpoch(Integer userId, LocalDateTime now);
+
+  /**
+   * Moves the token epoch of a user to the next value, only if it still has the expected one, so that the caller
+   * knows the new epoch without reading it back.
+   *
+   * @param userId   the ID of the user
+   * @param expected the epoch the user is expected to have
+   * @param next     the new epoch
+   * @param now      the update time to record
+   * @return the number of updated rows, 0 if the epoch was not the expected one
+   */
+  @Modifying
+  @Query("update User user set user.tokenEpoch = :next, user.updatedAt = :now where user.id = :userId and user.tokenEpoch = :expected")
+  int advanceTokenEpoch(Integer userId, long expected, long next, LocalDateTime now);
+
+  /**
+   * Changes the role of a user, only if it is a different one.
+   *
+   * @param userId the ID of the user
+   * @param role   the new role
+   * @param now    the update time to record
+   * @return the number of updated rows, 0 if the user already has the role
+   */
+  @Modifying
+  @Query("update User user set user.role = :role, user.updatedAt = :now where user.id = :userId and user.role <> :role")
+  int updateRole(Integer userId, Role role, LocalDateTime now);
+
+  /**
+   * Finds the users whose TOTP secret is still stored in plain text.
+   *
+   * @param pageable the batch to find
+   * @return the users with a legacy secret
+   */
+  List<User> findByTotpSecretIsNotNull(Pageable pageable);
+
+  /**
+   * Finds the pending TOTP secret of a user.
+   *
+   * @param userId the ID of the user
+   * @return an {@link Optional} containing the sealed pending secret, or an empty {@link Optional} if none
+   */
+  @Query("select user.pendingTotpSecret from User user where user.id = :userId and user.pendingTotpSecret is not null")
+  Optional<byte[]> findPendingTotpSecret(Integer userId);
+
+  /**
+   * Stores a pending TOTP secret for a user, replacing the previous pending one and resetting the attempts.
+   *
+   * @param userId        the ID of the user
+   * @param pendingSecret the sealed secret
+   * @return the number of updated rows
+   */
+  @Modifying
+  @Query("update User user set user.pendingTotpSecret = :pendingSecret, user.totpAttempts = 0 where user.id = :userId")
+  int storePendingTotpSecret(Integer userId, byte[] pendingSecret);
+
+  /**
+   * Takes one attempt at confirming the pending TOTP secret of a user, only if it has attempts left.
+   *
+   * @param userId      the ID of the user
+   * @param maxAttempts the number of attempts allowed per pending secret
+   * @return the number of updated rows, 0 if no attempt was taken
+   */
+  @Modifying
+  @Query("""
+          update User user set user.totpAttempts = user.totpAttempts + 1
+          where user.id = :userId and user.pendingTotpSecret is not null and user.totpAttempts < :maxAttempts
+          """)
+  int takeTotpSetupAttempt(Integer userId, int maxAttempts);
+
+  /**
+   * Makes the pending TOTP secret of a user the active one, only if it is still the confirmed one, and records the
+   * time step of the confirming code so that it is not accepted again.
+   *
+   * @param userId        the ID of the user
+   * @param pendingSecret the sealed secret the code was checked against
+   * @param step          the time step of the confirming code
+   * @return the number of updated rows
+   */
+  @Modifying
+  @Query("""
+          update User user set user.sealedTotpSecret = user.pendingTotpSecret, user.pendingTotpSecret = null,
+            user.totpChallenge = null,
+            user.totpLastStep = case when user.totpLastStep < :step then :step else user.totpLastStep end
+          where user.id = :userId and user.pendingTotpSecret = :pendingSecret
+          """)
+  int activateTotpSecret(Integer userId, byte[] pendingSecret, long step);
+
+  /**
+   * Removes the active and pending TOTP secrets of a user.
+   *
+   * @param userId the ID of the user
+   * @return the number of updated rows
+   */
+  @Modifying
+  @Query("""
+          update User user set user.sealedTotpSecret = null, user.pendingTotpSecret = null, user.totpChallenge = null
+          where user.id = :userId
+          """)
+  int removeTotpSecret(Integer userId);
+
+  /**
+   * Records a new TOTP challenge for a user, voiding the previous one and its attempts.
+   *
+   * @param userId    the ID of the user
+   * @param challenge the random identifier of the challenge
+   * @return the number of updated rows
+   */
+  @Modifying
+  @Query("update User user set user.totpChallenge = :challenge, user.totpAttempts = 0 where user.id = :userId")
+  int startTotpChallenge(Integer userId, long challenge);
+
+  /**
+   * Takes one attempt of the TOTP challenge of a user, only if it is still the current one and has attempts left.
+   * Of concurrent attempts, at most the remaining number succeed.
+   *
+   * @param userId      the ID of the user
+   * @param challenge   the random identifier of the challenge
+   * @param maxAttempts the number of attempts allowed per challenge
+   * @return the number of updated rows, 0 if no attempt was taken
+   */
+  @Modifying
+  @Query("""
+          update User user set user.totpAttempts = user.totpAttempts + 1
+          where user.id = :userId and user.totpChallenge = :challenge and user.totpAttempts < :maxAttempts
+          """)
+  int takeTotpAttempt(Integer userId, long challenge, int maxAttempts);
+
+  /**
+   * Records the time step of an accepted TOTP code and uses up the challenge, only if no code of this step or a later
+   * one was accepted before.
+   *
+   * @param userId the ID of the user
+   * @param step   the time step of the code
+   * @return the number of updated rows, 0 if the step was already used
+   */
+  @Modifying
+  @Query("update User user set user.totpLastStep = :step, user.totpChallenge = null where user.id = :userId and user.totpLastStep < :step")
+  int useTotpStep(Integer userId, long step);
+
+  /**
+   * Replaces the password hash of a user, only if it is still the one the new hash was computed from.
+   *
+   * @param userId          the ID of the user
+   * @param oldPasswordHash the hash being replaced
+   * @param newPasswordHash the new hash
+   * @return the number of updated rows
+   */
+  @Modifying
+  @Query("update User user set user.passwordHash = :newPasswordHash where user.id = :userId and user.passwordHash = :oldPasswordHash")
+  int updatePasswordHash(Integer userId, String oldPasswordHash, String newPasswordHash);
+
 }
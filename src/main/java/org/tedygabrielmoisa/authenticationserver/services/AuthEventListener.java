@@ -0,0 +1,18 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import org.tedygabrielmoisa.authenticationserver.entities.AuthEvent;
+
+/**
+ * Local view of authentication state kept current by the {@link AuthEventService} change feed.
+ * Events may be delivered more than once, including on the instance that published them,
+ * so applying one must be idempotent.
+ */
+public interface AuthEventListener {
+
+    /**
+     * Applies a revocation event to the local view.
+     *
+     * @param event the event read from the feed
+     */
+    void onAuthEvent(AuthEvent event);
+}
@@ -0,0 +1,206 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthEvent;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
+import org.tedygabrielmoisa.authenticationserver.enums.AuthEventType;
+import org.tedygabrielmoisa.authenticationserver.repositories.AuthEventRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cross-instance revocation feed on top of the append-only {@code auth_event} table.
+ * <p>
+ * Revocations are appended in the transaction that performs them, and every instance tails the table with an
+ * incremental {@code WHERE id > ?} poll, handing each event to the {@link AuthEventListener} caches. Local caches are
+ * therefore at most one poll interval behind a revocation made on another instance.
+ * <p>
+ * Identifiers are assigned on insert but become visible on commit, so a smaller identifier can show up after a larger
+ * one, and identifiers of rolled back transactions never show up. The feed reads on from the highest identifier
+ * applied and remembers the identifiers it skipped as holes, which every poll looks up again until they show up or
+ * have been missing for {@link #GAP_TIMEOUT_SECONDS}. Their age is measured with the database clock, shared by every
+ * instance, and every event is applied exactly once. Only the {@link #MAX_HOLES} lowest holes are remembered: larger
+ * jumps come from the identifier allocator, not from transactions still in flight.
+ * <p>
+ * Polls never overlap. A caller that needs recent events, such as the email filter before reporting an email as
+ * unregistered, can catch up with the feed: it polls only if the last poll started more than the catch-up interval
+ * ago, so a flood of such callers costs at most one feed query per interval, and no lock while the last poll is fresh.
+ */
+@Slf4j
+@Service
+public class AuthEventService {
+
+    private static final long GAP_TIMEOUT_SECONDS = 10;
+    private static final int MAX_HOLES = 1000;
+
+    private final AuthEventRepository authEventRepository;
+    private final List<AuthEventListener> listeners;
+    private final int batchSize;
+    private final long catchUpIntervalNanos;
+    private final Counter appliedEvents;
+
+    private final ReentrantLock polling = new ReentrantLock();
+
+    private final NavigableMap<Long, LocalDateTime> holes = new TreeMap<>();
+
+    private volatile long cursor;
+    private long highest;
+    private volatile long lastPollStart = System.nanoTime();
+
+    /**
+     * Creates the feed.
+     *
+     * @param authEventRepository the repository of the events
+     * @param listeners           the local caches the events are applied to
+     * @param batchSize           the maximum number of events read per poll
+     * @param catchUpInterval     the age in milliseconds under which the last poll is fresh enough to catch up with
+     * @param meterRegistry       the registry exposing the applied events and the cursor
+     */
+    public AuthEventService(
+            AuthEventRepository authEventRepository,
+            List<AuthEventListener> listeners,
+            @Value("${application.security.events.batch-size}") int batchSize,
+            @Value("${application.security.events.catch-up-interval}") long catchUpInterval,
+            MeterRegistry meterRegistry) {
+        this.authEventRepository = authEventRepository;
+        this.listeners = listeners;
+        this.batchSize = batchSize;
+        this.catchUpIntervalNanos = TimeUnit.MILLISECONDS.toNanos(catchUpInterval);
+        this.appliedEvents = meterRegistry.counter("auth.events.applied");
+
+        Gauge.builder("auth.events.cursor", this, feed -> feed.cursor).register(meterRegistry);
+    }
+
+    /**
+     * Starts tailing at the end of the feed: local caches start empty, so older events are irrelevant.
+     */
+    @PostConstruct
+    void init() {
+        cursor = authEventRepository.findTopByOrderByIdDesc()
+                .map(AuthEvent::getId)
+                .orElse(0L);
+        highest = cursor;
+    }
+
+    /**
+     * Appends an event to the feed. Must be called within the transaction performing the revocation.
+     *
+     * @param type       the kind of event
+     * @param user       the user the event is about
+     * @param tokenEpoch the token epoch of the user after the event, or null if unchanged
+     */
+    public void publish(AuthEventType type, AuthPrincipal user, Long tokenEpoch) {
+        authEventRepository.save(AuthEvent.builder()
+                .type(type)
+                .userId(user.getId())
+                .email(user.getEmail())
+                .tokenEpoch(tokenEpoch)
+                .build());
+    }
+
+    /**
+     * Reads the events appended since the previous poll and applies them to the local caches.
+     */
+    @Scheduled(fixedDelayString = "${application.security.events.poll-interval}")
+    public void poll() {
+        polling.lock();
+        try {
+            lastPollStart = System.nanoTime();
+            readNewEvents();
+        } finally {
+            polling.unlock();
+        }
+    }
+
+    /**
+     * Returns once every event committed more than the catch-up interval before the call has been applied, polling
+     * only if the last poll started longer ago than that.
+     */
+    public void catchUp() {
+        if (System.nanoTime() - lastPollStart < catchUpIntervalNanos) {
+            return;
+        }
+
+        polling.lock();
+        try {
+            if (System.nanoTime() - lastPollStart >= catchUpIntervalNanos) {
+                poll();
+            }
+        } finally {
+            polling.unlock();
+        }
+    }
+
+    /**
+     * Applies the events that filled holes and the events appended since the previous poll, then gives up on the
+     * holes missing for too long. Must be called with the polling lock held.
+     */
+    private void readNewEvents() {
+        LocalDateTime databaseTime = null;
+
+        if (!holes.isEmpty()) {
+            for (AuthEvent event : authEventRepository.findByIdIn(List.copyOf(holes.keySet()))) {
+                holes.remove(event.getId());
+                apply(event);
+            }
+        }
+
+        List<AuthEvent> events;
+
+        do {
+            events = authEventRepository.findByIdGreaterThanOrderByIdAsc(highest, PageRequest.of(0, batchSize));
+
+            for (AuthEvent event : events) {
+                if (event.getId() > highest + 1 && holes.size() < MAX_HOLES) {
+                    databaseTime = databaseTime != null ? databaseTime : authEventRepository.findDatabaseTime();
+
+                    for (long id = highest + 1; id < event.getId() && holes.size() < MAX_HOLES; id++) {
+                        holes.put(id, databaseTime);
+                    }
+                }
+
+                highest = event.getId();
+                apply(event);
+            }
+        } while (events.size() == batchSize);
+
+        if (!holes.isEmpty()) {
+            LocalDateTime deadline = (databaseTime != null ? databaseTime : authEventRepository.findDatabaseTime())
+                    .minusSeconds(GAP_TIMEOUT_SECONDS);
+
+            holes.values().removeIf(seenAt -> seenAt.isBefore(deadline));
+        }
+
+        cursor = holes.isEmpty() ? highest : holes.firstKey() - 1;
+    }
+
+    /**
+     * Hands an event to every listener, isolating their failures from each other.
+     *
+     * @param event the event to apply
+     */
+    private void apply(AuthEvent event) {
+        for (AuthEventListener listener : listeners) {
+            try {
+                listener.onAuthEvent(event);
+            } catch (RuntimeException e) {
+                log.warn("Could not apply auth event {} to {}", event.getId(), listener.getClass().getSimpleName(), e);
+            }
+        }
+
+        appliedEvents.increment();
+    }
+}
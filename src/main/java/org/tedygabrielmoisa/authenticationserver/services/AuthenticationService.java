@@ -1,23 +1,30 @@
 package org.tedygabrielmoisa.authenticationserver.services;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.tedygabrielmoisa.authenticationserver.authentication.EmailBloomFilter;
+import org.tedygabrielmoisa.authenticationserver.authentication.JwtAuthenticationCache;
+import org.tedygabrielmoisa.authenticationserver.authentication.PrincipalCache;
 import org.tedygabrielmoisa.authenticationserver.authentication.providers.OtpAuthentication;
 import org.tedygabrielmoisa.authenticationserver.authentication.providers.UsernamePasswordAuthentication;
 import org.tedygabrielmoisa.authenticationserver.dto.LoginUserDto;
-import org.tedygabrielmoisa.authenticationserver.entities.Otp;
-import org.tedygabrielmoisa.authenticationserver.entities.Token;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
 import org.tedygabrielmoisa.authenticationserver.entities.User;
-import org.tedygabrielmoisa.authenticationserver.repositories.OtpRepository;
-import org.tedygabrielmoisa.authenticationserver.repositories.TokenRepository;
+import org.tedygabrielmoisa.authenticationserver.enums.AuthEventType;
+import org.tedygabrielmoisa.authenticationserver.enums.Role;
+import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
+import org.tedygabrielmoisa.authenticationserver.stores.StoredToken;
+import org.tedygabrielmoisa.authenticationserver.stores.TokenStore;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.Optional;
+import java.time.ZoneId;
 
 /**
  * Service responsible for handling authentication-related operations.
@@ -26,24 +33,31 @@ import java.util.Optional;
 @RequiredArgsConstructor
 public class AuthenticationService {
 
-    @Value("${application.security.otp.longevity}")
-    private long otpLongevity;
-
     private final AuthenticationManager authenticationManager;
     private final JwtService jwtService;
-    private final TokenRepository tokenRepository;
-    private final OtpRepository otpRepository;
-    private final PasswordEncoder passwordEncoder;
+    private final TokenStore tokenStore;
     private final OtpService otpService;
+    private final TotpService totpService;
     private final EmailService emailService;
+    private final JwtAuthenticationCache authenticationCache;
+    private final PrincipalCache principalCache;
+    private final EmailBloomFilter emailFilter;
+    private final TokenEpochRegistry tokenEpochRegistry;
+    private final AuthEventService authEventService;
+    private final UserRepository userRepository;
+
+    @Value("${application.security.jwt.refresh-token.reuse-grace}")
+    private long reuseGracePeriod;
+    private final MeterRegistry meterRegistry;
 
     /**
      * Authenticates a user based on the provided login details.
      *
-     * @param loginUserDto the login details including email, password, and/or OTP
+     * @param loginUserDto  the login details including email, password, and/or OTP
+     * @param totpChallenge the challenge handed out by the password step to users enrolled in TOTP, or null
      * @return the authentication object if authentication is successful, null otherwise
      */
-    public Authentication authenticate(LoginUserDto loginUserDto) {
+    public Authentication authenticate(LoginUserDto loginUserDto, String totpChallenge) {
         if (loginUserDto.getOtp() == null && !loginUserDto.getPassword().isEmpty()) {
             return authenticationManager.authenticate(
                     new UsernamePasswordAuthentication(loginUserDto.getEmail(), loginUserDto.getPassword())
@@ -51,9 +65,10 @@ public class AuthenticationService {
         }
 
         if (loginUserDto.getPassword() == null && !loginUserDto.getOtp().isEmpty()) {
-            return authenticationManager.authenticate(
-                    new OtpAuthentication(loginUserDto.getEmail(), loginUserDto.getOtp())
-            );
+            OtpAuthentication authentication = new OtpAuthentication(loginUserDto.getEmail(), loginUserDto.getOtp());
+            authentication.setDetails(totpChallenge);
+
+            return authenticationManager.authenticate(authentication);
         }
 
         return null;
@@ -74,58 +89,183 @@ public class AuthenticationService {
     }
 
     /**
-     * Revokes all valid tokens associated with the specified user.
+     * Revokes all valid refresh tokens associated with the specified user with a single bulk update.
+     * Access tokens stay valid since the token epoch is unchanged, so no cache is evicted and no event is published:
+     * ending them is the job of {@link #revokeAllUserSessions(AuthPrincipal)}.
      *
      * @param user the user whose tokens need to be revoked
+     * @return the number of revoked tokens
      */
-    public void revokeAllUserTokens(User user) {
-        var validUserTokens = tokenRepository.findAllValidTokenByUser(user.getId());
+    @Transactional
+    public int revokeAllUserTokens(AuthPrincipal user) {
+        return tokenStore.revokeByUser(user.getId());
+    }
 
-        if (validUserTokens.isEmpty()) {
-            return;
+    /**
+     * Replaces the refresh tokens of the user with a new one: revokes the previous tokens and saves the new one
+     * in the same transaction.
+     *
+     * @param user     the user whose tokens are replaced
+     * @param jwtToken the new verified refresh token
+     */
+    @Transactional
+    public void replaceUserTokens(AuthPrincipal user, VerifiedToken jwtToken) {
+        revokeAllUserTokens(user);
+        saveUserToken(user, jwtToken);
+    }
+
+    /**
+     * Ends every session of the user: revokes the refresh tokens and bumps the token epoch,
+     * so that access tokens already handed out are no longer accepted by any instance.
+     * <p>
+     * The cached tokens of the user are evicted once the bumped epoch is known here, so that a token re-cached by a
+     * request racing with the revocation is dropped, and rejected on a cache hit until then.
+     *
+     * @param user the user whose sessions need to be revoked
+     */
+    @Transactional
+    public void revokeAllUserSessions(AuthPrincipal user) {
+        revokeAllUserTokens(user);
+        long epoch = tokenEpochRegistry.bump(user);
+        authenticationCache.evictUser(user.getEmail());
+        principalCache.evict(user.getEmail());
+
+        authEventService.publish(AuthEventType.LOGOUT, user, epoch);
+    }
+
+    /**
+     * Changes the role of the user and bumps the token epoch, since access tokens may carry the previous role, then
+     * publishes the change so that every instance evicts the cached authorities. Refresh tokens stay valid and mint
+     * access tokens with the new role.
+     *
+     * @param user the user whose role changes
+     * @param role the new role
+     * @return false if the user already had the role
+     */
+    @Transactional
+    public boolean changeRole(AuthPrincipal user, Role role) {
+        if (userRepository.updateRole(user.getId(), role, LocalDateTime.now()) == 0) {
+            return false;
         }
 
-        validUserTokens.forEach(token -> {
-            token.setExpired(true);
-            token.setRevoked(true);
-        });
+        long epoch = tokenEpochRegistry.bump(user);
+        authenticationCache.evictUser(user.getEmail());
+        principalCache.evict(user.getEmail());
 
-        tokenRepository.saveAll(validUserTokens);
+        authEventService.publish(AuthEventType.ROLE_CHANGED, user, epoch);
+        return true;
     }
 
     /**
-     * Saves a new JWT token for the specified user.
+     * Makes a newly registered user known to the email filter, here and, through the event feed, on every other
+     * instance.
+     *
+     * @param user the registered user
+     */
+    public void publishRegistration(User user) {
+        emailFilter.add(user.getEmail());
+        authEventService.publish(AuthEventType.REGISTERED, AuthPrincipal.of(user), null);
+    }
+
+    /**
+     * Saves the digest and the expiration time of a new JWT token for the specified user, starting a new family.
      *
      * @param user     the user for whom the token is to be saved
-     * @param jwtToken the JWT token to be saved
+     * @param jwtToken the verified JWT token to be saved
      */
-    public void saveUserToken(User user, String jwtToken) {
-        var token = Token.builder()
-                .user(user)
-                .token(jwtToken)
-                .expired(false)
-                .revoked(false)
-                .build();
-
-        tokenRepository.save(token);
+    public void saveUserToken(AuthPrincipal user, VerifiedToken jwtToken) {
+        tokenStore.save(StoredToken.issue(jwtToken, user.getId()));
     }
 
     /**
-     * Generates and saves a new OTP for the specified user.
+     * Exchanges a valid refresh token for a new token pair, marking the presented token as rotated and storing its
+     * successor in the same family.
+     * A rotated token presented again is treated as reuse of a stolen token and revokes its whole family.
+     * In stateless mode, this is where the role embedded in the next access token is checked against the database.
      *
-     * @param user the user for whom the OTP is to be generated
+     * @param refreshToken the verified refresh token presented by the client
+     * @return the new access and refresh tokens, or null if the refresh token is not valid
      */
-    public void saveUserOtp(User user) {
-        String code = otpService.generateOtp();
-        Optional<Otp> dbOtp = otpRepository.findOtpByUserId(user.getId());
+    @Transactional
+    public TokenPair rotateRefreshToken(VerifiedToken refreshToken) {
+        long epoch = tokenEpochRegistry.currentEpoch(refreshToken.getSubject());
+
+        if (epoch == Long.MAX_VALUE) {
+            return null;
+        }
 
-        Otp otp = dbOtp.orElseGet(() -> Otp.builder().user(user).build());
+        AuthPrincipal principal = null;
 
-        otp.setCreatedAt(LocalDateTime.now());
-        otp.setExpiresAt(LocalDateTime.now().plusSeconds(otpLongevity));
-        otp.setOtp(passwordEncoder.encode(code));
+        if (jwtService.isStateless()) {
+            principal = principalCache.findPrincipal(refreshToken.getSubject()).orElse(null);
 
-        otpRepository.save(otp);
+            if (principal == null) {
+                return null;
+            }
+        }
+
+        TokenPair tokens = jwtService.generateTokenPair(refreshToken.getSubject(), epoch, principal);
+
+        if (!tokenStore.rotate(refreshToken.getToken(), tokens.getRefreshToken())) {
+            long now = System.currentTimeMillis() / 1000;
+
+            tokenStore.find(refreshToken.getToken())
+                    .filter(StoredToken::isRotated)
+                    .ifPresent(token -> handleReuse(token, now));
+
+            return null;
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Handles a refresh token presented again after being rotated. Within the grace period it is taken for a retry
+     * of a client that lost the response, or for concurrent tabs, and only refused. Later it is taken for a stolen
+     * token and its whole family is revoked.
+     *
+     * @param token the reused token
+     * @param now   the current time in epoch seconds
+     */
+    private void handleReuse(StoredToken token, long now) {
+        if (token.isRecentlyRotated(now, reuseGracePeriod)) {
+            meterRegistry.counter("auth.refresh.reuse", "result", "grace").increment();
+            return;
+        }
+
+        meterRegistry.counter("auth.refresh.reuse", "result", "revoked").increment();
+
+        if (token.getFamilyId() != null) {
+            tokenStore.revokeFamily(token.getFamilyId());
+        }
+    }
+
+    /**
+     * Starts the second factor of a user that passed the password step: users enrolled in an authenticator app get a
+     * challenge cookie, the others an OTP by email.
+     *
+     * @param user     the user that passed the password step
+     * @param response the HTTP response
+     */
+    @Transactional
+    public void startSecondFactor(User user, HttpServletResponse response) {
+        if (user.getSealedTotpSecret() != null) {
+            totpService.setChallengeCookie(AuthPrincipal.of(user), response);
+        } else {
+            saveUserOtp(user);
+        }
+    }
+
+    /**
+     * Generates and saves a new OTP for the specified user and queues the email carrying it, in one transaction.
+     * The email expires with the code.
+     *
+     * @param user the user for whom the OTP is to be generated
+     */
+    @Transactional
+    public void saveUserOtp(User user) {
+        String code = otpService.generateOtp();
+        long expiresAt = otpService.storeCode(user.getId(), code);
 
         String recipient = user.getEmail();
         String subject = "Hello, " + user.getFirstName() + " " + user.getLastName() + " !";
@@ -134,16 +274,17 @@ public class AuthenticationService {
                 + "\n"
                 + "Have a nice day!\n\n";
 
-        emailService.sendEmail(recipient, subject, template);
+        emailService.queueEmail(recipient, subject, template,
+                LocalDateTime.ofInstant(Instant.ofEpochSecond(expiresAt), ZoneId.systemDefault()));
     }
 
     /**
      * Sets the JWT token as a cookie in the response.
      *
-     * @param jwtToken the JWT token to be set as a cookie
+     * @param jwtToken the verified JWT token to be set as a cookie
      * @param response the HTTP response object
      */
-    public void setCookieToken(String jwtToken, HttpServletResponse response) {
-        response.addHeader("Set-Cookie", "token=" + jwtToken + "; HttpOnly; Path=/; Max-Age=" + jwtService.extractDuration(jwtToken));
+    public void setCookieToken(VerifiedToken jwtToken, HttpServletResponse response) {
+        response.addHeader("Set-Cookie", "token=" + jwtToken.getToken() + "; HttpOnly; Path=/; Max-Age=" + jwtToken.getSecondsUntilExpiration());
     }
 }
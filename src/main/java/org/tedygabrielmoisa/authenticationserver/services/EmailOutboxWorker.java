@@ -0,0 +1,267 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.tedygabrielmoisa.authenticationserver.entities.EmailOutbox;
+import org.tedygabrielmoisa.authenticationserver.repositories.EmailOutboxRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background delivery of the {@code email_outbox} table.
+ * <p>
+ * Each poll claims batches of due emails, at most one per free worker, by locking them with {@code SKIP LOCKED} and
+ * pushing their next attempt past a lease, in a short transaction. Every batch is then sent over a single SMTP
+ * connection outside of any transaction. Delivered emails are deleted, failed ones are retried with exponential
+ * backoff until the last allowed attempt, after which they are kept as failed for inspection until the retention job
+ * purges them with the other expired emails. Expired emails are never sent. An email whose worker dies is picked up
+ * again once its lease ends.
+ * <p>
+ * In the virtual thread mode each batch gets a virtual thread of its own, the number of concurrent batches still being
+ * bounded by the configured workers.
+ */
+@Slf4j
+@Service
+public class EmailOutboxWorker {
+
+    private static final long MAX_BACKOFF_SECONDS = 3600;
+
+    private final EmailOutboxRepository emailOutboxRepository;
+    private final EmailService emailService;
+    private final JavaMailSender mailSender;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long backoff;
+    private final long lease;
+
+    private final Executor workers;
+    private final Semaphore freeWorkers;
+    private final Counter sent;
+    private final Counter retried;
+    private final Counter failed;
+    private final Timer batchTimer;
+
+    /**
+     * Creates the worker pool.
+     *
+     * @param emailOutboxRepository the repository of the queued emails
+     * @param emailService          the service opening the sealed bodies
+     * @param mailSender            the sender delivering the emails
+     * @param transactionTemplate   the template running each claim and each outcome in its own transaction
+     * @param workerCount           the number of batches sent concurrently
+     * @param batchSize             the maximum number of emails sent over one connection
+     * @param maxAttempts           the number of delivery attempts before an email is abandoned
+     * @param backoff               the delay before the first retry, doubled on each further one, in seconds
+     * @param lease                 the time a claimed email is hidden from other workers, in seconds
+     * @param meterRegistry         the registry exposing the delivery outcomes and the batch latency
+     * @param environment           the environment telling whether the virtual thread mode is active
+     */
+    public EmailOutboxWorker(
+            EmailOutboxRepository emailOutboxRepository,
+            EmailService emailService,
+            JavaMailSender mailSender,
+            TransactionTemplate transactionTemplate,
+            @Value("${application.security.email-outbox.workers}") int workerCount,
+            @Value("${application.security.email-outbox.batch-size}") int batchSize,
+            @Value("${application.security.email-outbox.max-attempts}") int maxAttempts,
+            @Value("${application.security.email-outbox.backoff}") long backoff,
+            @Value("${application.security.email-outbox.lease}") long lease,
+            MeterRegistry meterRegistry,
+            Environment environment) {
+        AtomicInteger threadCount = new AtomicInteger();
+
+        this.emailOutboxRepository = emailOutboxRepository;
+        this.emailService = emailService;
+        this.mailSender = mailSender;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+        this.lease = lease;
+        this.workers = Threading.VIRTUAL.isActive(environment)
+                ? new VirtualThreadTaskExecutor("email-outbox-")
+                : Executors.newFixedThreadPool(workerCount, runnable -> {
+                    Thread thread = new Thread(runnable, "email-outbox-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.freeWorkers = new Semaphore(workerCount);
+        this.sent = meterRegistry.counter("auth.email.outbox.delivery", "result", "sent");
+        this.retried = meterRegistry.counter("auth.email.outbox.delivery", "result", "retry");
+        this.failed = meterRegistry.counter("auth.email.outbox.delivery", "result", "failed");
+        this.batchTimer = meterRegistry.timer("auth.email.outbox.batch");
+    }
+
+    /**
+     * Claims due batches for the free workers and hands them over.
+     */
+    @Scheduled(fixedDelayString = "${application.security.email-outbox.poll-interval}")
+    public void poll() {
+        while (freeWorkers.tryAcquire()) {
+            List<EmailOutbox> batch = claim();
+
+            if (batch.isEmpty()) {
+                freeWorkers.release();
+                return;
+            }
+
+            workers.execute(() -> {
+                try {
+                    batchTimer.record(() -> deliver(batch));
+                } finally {
+                    freeWorkers.release();
+                }
+            });
+
+            if (batch.size() < batchSize) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops the workers, letting the batches being sent finish.
+     */
+    @PreDestroy
+    void shutdown() {
+        if (workers instanceof ExecutorService pool) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Locks a batch of due emails and leases it to this worker.
+     *
+     * @return the claimed emails, detached
+     */
+    private List<EmailOutbox> claim() {
+        List<EmailOutbox> batch = transactionTemplate.execute(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            List<EmailOutbox> due = emailOutboxRepository.lockDue(now, PageRequest.of(0, batchSize));
+
+            due.forEach(email -> email.setNextAttemptAt(now.plusSeconds(lease)));
+
+            return due;
+        });
+
+        return batch != null ? batch : List.of();
+    }
+
+    /**
+     * Sends a batch over a single connection and records the outcome of every email. Bodies are only opened here,
+     * so the plain codes never leave the memory of the worker.
+     *
+     * @param batch the claimed emails
+     */
+    private void deliver(List<EmailOutbox> batch) {
+        Map<SimpleMailMessage, EmailOutbox> messages = new IdentityHashMap<>();
+        List<EmailOutbox> undelivered = new ArrayList<>();
+
+        for (EmailOutbox email : batch) {
+            try {
+                SimpleMailMessage message = new SimpleMailMessage();
+                message.setTo(email.getRecipient());
+                message.setSubject(email.getSubject());
+                message.setText(emailService.openBody(email));
+                messages.put(message, email);
+            } catch (IllegalStateException e) {
+                email.setLastError(truncate(e.getMessage()));
+                undelivered.add(email);
+            }
+        }
+
+        Map<Object, Exception> failures = new IdentityHashMap<>();
+
+        try {
+            if (!messages.isEmpty()) {
+                mailSender.send(messages.keySet().toArray(new SimpleMailMessage[0]));
+            }
+        } catch (MailSendException e) {
+            failures.putAll(e.getFailedMessages());
+
+            if (failures.isEmpty()) {
+                messages.keySet().forEach(message -> failures.put(message, e));
+            }
+        } catch (MailException e) {
+            messages.keySet().forEach(message -> failures.put(message, e));
+        }
+
+        List<Long> delivered = new ArrayList<>();
+
+        messages.forEach((message, email) -> {
+            Exception failure = failures.get(message);
+
+            if (failure == null) {
+                delivered.add(email.getId());
+            } else {
+                email.setLastError(truncate(failure.getMessage()));
+                undelivered.add(email);
+            }
+        });
+
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!delivered.isEmpty()) {
+                emailOutboxRepository.deleteAllByIdInBatch(delivered);
+            }
+
+            undelivered.forEach(this::reschedule);
+        });
+
+        sent.increment(delivered.size());
+    }
+
+    /**
+     * Schedules the retry of an email that could not be delivered, or abandons it after the last attempt.
+     *
+     * @param email the undelivered email
+     */
+    private void reschedule(EmailOutbox email) {
+        int attempts = email.getAttempts() + 1;
+        email.setAttempts(attempts);
+
+        if (attempts >= maxAttempts) {
+            email.setFailed(true);
+            failed.increment();
+            log.warn("Gave up delivering email {} after {} attempts: {}", email.getId(), attempts, email.getLastError());
+        } else {
+            long delay = Math.min(MAX_BACKOFF_SECONDS, backoff << Math.min(attempts - 1, 20));
+            email.setNextAttemptAt(LocalDateTime.now().plusSeconds(delay));
+            retried.increment();
+        }
+
+        emailOutboxRepository.save(email);
+    }
+
+    private static String truncate(String message) {
+        if (message == null) {
+            return null;
+        }
+
+        return message.length() > 255 ? message.substring(0, 255) : message;
+    }
+}
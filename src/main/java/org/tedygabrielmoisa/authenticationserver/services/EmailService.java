@@ -1,34 +1,70 @@
 package org.tedygabrielmoisa.authenticationserver.services;
 
-import lombok.RequiredArgsConstructor;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
+import io.jsonwebtoken.io.Decoders;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.tedygabrielmoisa.authenticationserver.entities.EmailOutbox;
+import org.tedygabrielmoisa.authenticationserver.repositories.EmailOutboxRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 
 /**
  * Service class responsible for handling email operations.
- * Utilizes {@link JavaMailSender} to send emails.
+ * Emails are written to the {@code email_outbox} table and delivered in the background by the
+ * {@link EmailOutboxWorker}, so no request waits for the mail relay.
+ * <p>
+ * Bodies carry one-time codes, so they are sealed and bound to the recipient: reading the table reveals no live code.
+ * Every email also expires with the code it carries, after which it is no longer sent and the retention job deletes
+ * it.
  */
 @Service
-@RequiredArgsConstructor
 public class EmailService {
 
-    private final JavaMailSender mailSender;
+    private final EmailOutboxRepository emailOutboxRepository;
+    private final SecretSealer bodySealer;
+
+    /**
+     * Creates the service.
+     *
+     * @param emailOutboxRepository the repository of the queued emails
+     * @param jwtSecretKey          the base64 JWT secret the body key is derived from
+     */
+    public EmailService(
+            EmailOutboxRepository emailOutboxRepository,
+            @Value("${application.security.jwt.secret-key}") String jwtSecretKey) {
+        this.emailOutboxRepository = emailOutboxRepository;
+        this.bodySealer = new SecretSealer(Decoders.BASE64.decode(jwtSecretKey), "email-outbox");
+    }
 
     /**
-     * Sends an email to a specified recipient with a given subject and body.
+     * Queues an email to a specified recipient with a given subject and body, within the current transaction if any,
+     * so that it is only sent if the transaction commits.
      *
-     * @param to      the email address of the recipient
-     * @param subject the subject line of the email
-     * @param body    the main content of the email
+     * @param to        the email address of the recipient
+     * @param subject   the subject line of the email
+     * @param body      the main content of the email, stored sealed
+     * @param expiresAt the time after which the email is no longer worth sending
      */
-    public void sendEmail(String to, String subject, String body) {
-        SimpleMailMessage message = new SimpleMailMessage();
+    public void queueEmail(String to, String subject, String body, LocalDateTime expiresAt) {
+        emailOutboxRepository.save(EmailOutbox.builder()
+                .recipient(to)
+                .subject(subject)
+                .sealedBody(bodySealer.seal(body.getBytes(StandardCharsets.UTF_8), to.getBytes(StandardCharsets.UTF_8)))
+                .expiresAt(expiresAt)
+                .build());
+    }
 
-        message.setTo(to);
-        message.setSubject(subject);
-        message.setText(body);
+    /**
+     * Returns the plain body of a queued email.
+     *
+     * @param email the queued email
+     * @return the body as it was queued
+     * @throws IllegalStateException if the body was not sealed for this recipient with the current key
+     */
+    public String openBody(EmailOutbox email) {
+        byte[] body = bodySealer.open(email.getSealedBody(), email.getRecipient().getBytes(StandardCharsets.UTF_8));
 
-        mailSender.send(message);
+        return new String(body, StandardCharsets.UTF_8);
     }
 }
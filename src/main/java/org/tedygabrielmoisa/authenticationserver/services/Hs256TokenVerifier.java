@@ -0,0 +1,315 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Allocation-light verifier for the HS256 tokens minted by this server.
+ * <p>
+ * It only accepts the exact header jjwt writes for HS256 ({@code {"alg":"HS256"}}) and a flat payload made of the
+ * {@code sub}, {@code iat}, {@code exp} and {@code epoch} claims, optionally followed by the {@code uid} and
+ * {@code role} claims of stateless mode and the {@code jti} claim of refresh tokens. The token is decoded into pooled
+ * buffers, the MAC is computed with a pooled {@link Mac} and the claims are read without building a generic claims
+ * map. The pool is striped rather than thread-local, so the buffers stay reused with virtual threads.
+ * Anything else makes {@link #verify(String)} return null so the caller can fall back to jjwt.
+ */
+public class Hs256TokenVerifier {
+
+    /**
+     * Returned for tokens this verifier fully understood but which carry a wrong signature or are expired.
+     */
+    public static final VerifiedToken REJECTED = new VerifiedToken(null, null, 0, 0, 0);
+
+    private static final String HEADER = "eyJhbGciOiJIUzI1NiJ9";
+    private static final int MAC_LENGTH = 32;
+    private static final int SIGNATURE_LENGTH = 43;
+    private static final int MAX_TOKEN_LENGTH = 4096;
+
+    private static final byte[] SUB = "sub".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IAT = "iat".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXP = "exp".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EPOCH = JwtService.EPOCH_CLAIM.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] UID = JwtService.UID_CLAIM.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ROLE = JwtService.ROLE_CLAIM.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JTI = "jti".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int[] BASE64_URL = new int[128];
+
+    static {
+        Arrays.fill(BASE64_URL, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_URL[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private final StripedPool<State> states;
+
+    /**
+     * Creates a verifier for the given HMAC secret.
+     *
+     * @param secret the raw HMAC-SHA256 key
+     */
+    public Hs256TokenVerifier(byte[] secret) {
+        SecretKeySpec key = new SecretKeySpec(secret, "HmacSHA256");
+        this.states = new StripedPool<>(() -> new State(key));
+    }
+
+    /**
+     * Verifies the token on the fast path.
+     *
+     * @param token the compact JWT
+     * @return the verified token, {@link #REJECTED} if the signature is wrong or the token expired,
+     * or null if the token has a shape this verifier does not handle
+     */
+    public VerifiedToken verify(String token) {
+        int length = token.length();
+        int headerEnd = HEADER.length();
+
+        if (length > MAX_TOKEN_LENGTH || length <= headerEnd || !token.startsWith(HEADER) || token.charAt(headerEnd) != '.') {
+            return null;
+        }
+
+        int payloadEnd = token.indexOf('.', headerEnd + 1);
+
+        if (payloadEnd < 0 || length - payloadEnd - 1 != SIGNATURE_LENGTH) {
+            return null;
+        }
+
+        State s = states.acquire();
+        try {
+            return verify(token, headerEnd, payloadEnd, s);
+        } finally {
+            states.release(s);
+        }
+    }
+
+    private static VerifiedToken verify(String token, int headerEnd, int payloadEnd, State s) {
+        int length = token.length();
+
+        for (int i = 0; i < payloadEnd; i++) {
+            char c = token.charAt(i);
+            if (c > 127) {
+                return null;
+            }
+            s.input[i] = (byte) c;
+        }
+
+        if (decode(token, payloadEnd + 1, length, s.signature) != MAC_LENGTH) {
+            return null;
+        }
+
+        int payloadLength = decode(token, headerEnd + 1, payloadEnd, s.payload);
+
+        if (payloadLength < 0) {
+            return null;
+        }
+
+        try {
+            s.mac.update(s.input, 0, payloadEnd);
+            s.mac.doFinal(s.computed, 0);
+        } catch (ShortBufferException e) {
+            s.mac.reset();
+            return null;
+        }
+
+        if (!constantTimeEquals(s.computed, s.signature)) {
+            return REJECTED;
+        }
+
+        return readClaims(token, s.payload, payloadLength);
+    }
+
+    /**
+     * Reads the flat claims object of the payload.
+     *
+     * @param token  the compact JWT
+     * @param json   the decoded payload
+     * @param length the payload length
+     * @return the verified token, {@link #REJECTED} if expired, or null if the payload is not understood
+     */
+    private static VerifiedToken readClaims(String token, byte[] json, int length) {
+        String subject = null;
+        long issuedAt = 0;
+        long expiresAt = -1;
+        long epoch = 0;
+        Integer userId = null;
+        String role = null;
+        String tokenId = null;
+
+        int i = skipWhitespace(json, 0, length);
+        if (i >= length || json[i++] != '{') {
+            return null;
+        }
+
+        while (true) {
+            i = skipWhitespace(json, i, length);
+            if (i >= length || json[i] != '"') {
+                return null;
+            }
+
+            int keyStart = ++i;
+            while (i < length && json[i] != '"' && json[i] != '\\') {
+                i++;
+            }
+            if (i >= length || json[i] != '"') {
+                return null;
+            }
+            int keyEnd = i++;
+
+            i = skipWhitespace(json, i, length);
+            if (i >= length || json[i++] != ':') {
+                return null;
+            }
+            i = skipWhitespace(json, i, length);
+            if (i >= length) {
+                return null;
+            }
+
+            if (json[i] == '"') {
+                int valueStart = ++i;
+                while (i < length && json[i] != '"' && json[i] != '\\') {
+                    i++;
+                }
+                if (i >= length || json[i] != '"') {
+                    return null;
+                }
+                if (matches(json, keyStart, keyEnd, SUB)) {
+                    subject = new String(json, valueStart, i - valueStart, StandardCharsets.UTF_8);
+                } else if (matches(json, keyStart, keyEnd, ROLE)) {
+                    role = new String(json, valueStart, i - valueStart, StandardCharsets.UTF_8);
+                } else if (matches(json, keyStart, keyEnd, JTI)) {
+                    tokenId = new String(json, valueStart, i - valueStart, StandardCharsets.US_ASCII);
+                } else {
+                    return null;
+                }
+                i++;
+            } else {
+                int valueStart = i;
+                long value = 0;
+                while (i < length && json[i] >= '0' && json[i] <= '9' && i - valueStart < 18) {
+                    value = value * 10 + (json[i++] - '0');
+                }
+                if (i == valueStart) {
+                    return null;
+                }
+                if (matches(json, keyStart, keyEnd, IAT)) {
+                    issuedAt = value;
+                } else if (matches(json, keyStart, keyEnd, EXP)) {
+                    expiresAt = value;
+                } else if (matches(json, keyStart, keyEnd, EPOCH)) {
+                    epoch = value;
+                } else if (matches(json, keyStart, keyEnd, UID) && value <= Integer.MAX_VALUE) {
+                    userId = (int) value;
+                } else {
+                    return null;
+                }
+            }
+
+            i = skipWhitespace(json, i, length);
+            if (i >= length) {
+                return null;
+            }
+            if (json[i] == ',') {
+                i++;
+            } else if (json[i] == '}') {
+                break;
+            } else {
+                return null;
+            }
+        }
+
+        if (subject == null || expiresAt < 0 || skipWhitespace(json, i + 1, length) != length) {
+            return null;
+        }
+
+        if (expiresAt <= System.currentTimeMillis() / 1000) {
+            return REJECTED;
+        }
+
+        return new VerifiedToken(token, subject, issuedAt, expiresAt, epoch, userId, role, tokenId);
+    }
+
+    /**
+     * Decodes an unpadded base64url region of the token into the target buffer.
+     *
+     * @param token  the source string
+     * @param from   the start index, inclusive
+     * @param to     the end index, exclusive
+     * @param target the buffer to decode into
+     * @return the number of decoded bytes, or -1 if the region is invalid or does not fit
+     */
+    private static int decode(String token, int from, int to, byte[] target) {
+        int chars = to - from;
+
+        if (chars % 4 == 1 || chars * 3 / 4 > target.length) {
+            return -1;
+        }
+
+        int out = 0;
+        int buffer = 0;
+        int bits = 0;
+
+        for (int i = from; i < to; i++) {
+            char c = token.charAt(i);
+            int value = c < 128 ? BASE64_URL[c] : -1;
+
+            if (value < 0) {
+                return -1;
+            }
+
+            buffer = (buffer << 6) | value;
+            bits += 6;
+
+            if (bits >= 8) {
+                bits -= 8;
+                target[out++] = (byte) (buffer >> bits);
+            }
+        }
+
+        return out;
+    }
+
+    private static int skipWhitespace(byte[] json, int i, int length) {
+        while (i < length && (json[i] == ' ' || json[i] == '\t' || json[i] == '\n' || json[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean matches(byte[] json, int from, int to, byte[] expected) {
+        return Arrays.equals(json, from, to, expected, 0, expected.length);
+    }
+
+    private static boolean constantTimeEquals(byte[] a, byte[] b) {
+        int result = 0;
+        for (int i = 0; i < MAC_LENGTH; i++) {
+            result |= a[i] ^ b[i];
+        }
+        return result == 0;
+    }
+
+    /**
+     * Buffers and MAC instance, used by one thread at a time.
+     */
+    private static final class State {
+        private final Mac mac;
+        private final byte[] input = new byte[MAX_TOKEN_LENGTH];
+        private final byte[] payload = new byte[MAX_TOKEN_LENGTH];
+        private final byte[] signature = new byte[MAC_LENGTH + 2];
+        private final byte[] computed = new byte[MAC_LENGTH];
+
+        private State(SecretKeySpec key) {
+            try {
+                mac = Mac.getInstance("HmacSHA256");
+                mac.init(key);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.tedygabrielmoisa.authenticationserver.entities.SigningKey;
+import org.tedygabrielmoisa.authenticationserver.enums.SigningKeyState;
+import org.tedygabrielmoisa.authenticationserver.repositories.SigningKeyRepository;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Key ring holding the keys used to sign and verify JWT tokens.
+ * <p>
+ * With the default {@code HS256} algorithm the ring only holds the configured secret key, exactly as before.
+ * With an asymmetric algorithm ({@code RS256}, {@code ES256}) it holds one pending, one active and any number of
+ * retiring key pairs and publishes their public halves through the JWKS endpoint. The key pairs live in the
+ * {@code signing_key} table, their private halves sealed with a key derived from the JWT secret, so every instance
+ * signs and verifies with the same ring and tokens survive restarts. Each instance refreshes its copy on a schedule,
+ * creating or rotating the ring under a lock when it is due, and reloads it early when a token names a key it does not
+ * know yet.
+ * <p>
+ * Tokens without a key id were signed with the HMAC secret before the switch to an asymmetric algorithm. They are only
+ * accepted if the time of the switch is configured, issued before it and presented within the longest token lifetime
+ * after it, so that the shared secret stops being a signing key once the tokens it signed have expired.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class JwtKeyRing extends SigningKeyResolverAdapter {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final long MIN_RELOAD_INTERVAL_MILLIS = 1000;
+
+    private final SigningKeyRepository signingKeyRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${application.security.jwt.secret-key}")
+    private String jwtSecretKey;
+    @Value("${application.security.jwt.algorithm}")
+    private String jwtAlgorithm;
+    @Value("${application.security.jwt.longevity}")
+    private long jwtTokenLongevity;
+    @Value("${application.security.jwt.refresh-token.longevity}")
+    private long jwtRefreshTokenLongevity;
+    @Value("${application.security.jwt.rotation.interval}")
+    private long rotationInterval;
+    @Value("${application.security.jwt.jwks.max-age}")
+    private long jwksMaxAge;
+    @Value("${application.security.jwt.legacy-tokens.switched-at:}")
+    private String legacySwitchedAt;
+
+    private SignatureAlgorithm algorithm;
+    private JwtSigningKey legacyKey;
+    private SecretSealer privateKeySealer;
+    private Instant legacyIssuedBefore;
+    private Instant legacyAcceptedUntil;
+    private volatile List<JwtSigningKey> keys = List.of();
+
+    private final AtomicLong lastReload = new AtomicLong();
+
+    /**
+     * Loads the HMAC secret and, for asymmetric algorithms, the shared key ring, creating it on first start.
+     */
+    @PostConstruct
+    void init() {
+        algorithm = SignatureAlgorithm.forName(jwtAlgorithm);
+
+        if (jwtSecretKey != null && !jwtSecretKey.isBlank()) {
+            Key secret = Keys.hmacShaKeyFor(Decoders.BASE64.decode(jwtSecretKey));
+            legacyKey = new JwtSigningKey(null, SignatureAlgorithm.HS256, secret, secret, SigningKeyState.ACTIVE, Instant.now());
+        }
+
+        if (algorithm.isHmac()) {
+            if (legacyKey == null) {
+                throw new IllegalStateException("A secret key is required for the " + algorithm + " algorithm");
+            }
+            keys = List.of(legacyKey);
+            return;
+        }
+
+        if (!algorithm.isRsa() && !algorithm.isEllipticCurve()) {
+            throw new IllegalStateException("Unsupported JWT signing algorithm: " + jwtAlgorithm);
+        }
+
+        if (legacyKey == null) {
+            throw new IllegalStateException("A secret key is required to seal the " + algorithm + " signing keys");
+        }
+
+        if (rotationInterval <= jwksMaxAge) {
+            log.warn("JWT key rotation interval ({}s) should exceed the JWKS max-age ({}s) so verifiers see new keys before they are used",
+                    rotationInterval, jwksMaxAge);
+        }
+
+        if (legacySwitchedAt != null && !legacySwitchedAt.isBlank()) {
+            legacyIssuedBefore = Instant.parse(legacySwitchedAt);
+            legacyAcceptedUntil = legacyIssuedBefore.plusSeconds(Math.max(jwtTokenLongevity, jwtRefreshTokenLongevity));
+        }
+
+        privateKeySealer = new SecretSealer(Decoders.BASE64.decode(jwtSecretKey), "signing-key");
+        refresh();
+    }
+
+    /**
+     * Reloads the shared ring, first rotating it if the active key is older than the rotation interval: the pending
+     * key becomes active, the active key starts retiring, a new pending key is generated and retiring keys older than
+     * the longest token lifetime are dropped. Instances refreshing concurrently are serialized by the row locks and
+     * the age check, so the ring rotates once per interval whichever instance gets there first.
+     */
+    @Scheduled(
+            initialDelayString = "${application.security.jwt.rotation.refresh-interval}",
+            fixedDelayString = "${application.security.jwt.rotation.refresh-interval}",
+            timeUnit = TimeUnit.SECONDS)
+    public void refresh() {
+        if (algorithm.isHmac()) {
+            return;
+        }
+
+        List<SigningKey> stored = transactionTemplate.execute(status -> rotateIfDue(Instant.now()));
+        keys = toRing(stored);
+        lastReload.set(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the key that signs newly issued tokens. Two instances creating the ring at once may both add an
+     * active key, in which case the most recent one signs until the next rotation retires both.
+     *
+     * @return the active signing key
+     */
+    public JwtSigningKey getActiveKey() {
+        JwtSigningKey active = null;
+
+        for (JwtSigningKey key : keys) {
+            if (key.getState() == SigningKeyState.ACTIVE && (active == null || !key.getSince().isBefore(active.getSince()))) {
+                active = key;
+            }
+        }
+
+        if (active == null) {
+            throw new IllegalStateException("No active JWT signing key");
+        }
+
+        return active;
+    }
+
+    /**
+     * Returns the HMAC key built from the configured secret, used for tokens without a key id.
+     *
+     * @return the HMAC key, or null if no secret is configured
+     */
+    public JwtSigningKey getLegacyKey() {
+        return legacyKey;
+    }
+
+    /**
+     * Tells whether tokens are signed with the HMAC secret rather than with the key pairs of the ring.
+     *
+     * @return true for the {@code HS256} algorithm
+     */
+    public boolean isHmac() {
+        return algorithm.isHmac();
+    }
+
+    /**
+     * Resolves the verification key for a token from its {@code kid} header.
+     * Tokens without a key id are verified with the configured HMAC secret, with an asymmetric algorithm only if
+     * they were issued before the switch and the transition window is still open.
+     *
+     * @param header the JWS header of the token
+     * @param claims the claims of the token
+     * @return the verification key
+     */
+    @Override
+    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+        String kid = header.getKeyId();
+
+        if (kid == null) {
+            if (legacyKey == null || !algorithm.isHmac() && !isLegacyToken(claims.getIssuedAt())) {
+                throw new JwtException("Token without key id cannot be verified");
+            }
+            return legacyKey.getVerificationKey();
+        }
+
+        JwtSigningKey key = findKey(kid);
+
+        if (key == null && reloadIfStale()) {
+            key = findKey(kid);
+        }
+
+        if (key == null) {
+            throw new JwtException("Unknown signing key: " + kid);
+        }
+
+        return key.getVerificationKey();
+    }
+
+    /**
+     * Builds the JSON Web Key Set with the public keys of every pending, active and retiring asymmetric key.
+     *
+     * @return the JWKS document
+     */
+    public Map<String, Object> getJwks() {
+        List<Map<String, Object>> jwks = new ArrayList<>();
+
+        for (JwtSigningKey key : keys) {
+            if (key.isPublishable()) {
+                jwks.add(toJwk(key));
+            }
+        }
+
+        return Map.of("keys", jwks);
+    }
+
+    /**
+     * Returns the number of seconds verifiers may cache the JWKS.
+     *
+     * @return the JWKS max-age in seconds
+     */
+    public long getJwksMaxAge() {
+        return jwksMaxAge;
+    }
+
+    /**
+     * Tells whether a token without a key id may still be verified with the HMAC secret after the switch to an
+     * asymmetric algorithm.
+     *
+     * @param issuedAt the issue time of the token
+     * @return true if the token was issued before the switch and the transition window is open
+     */
+    private boolean isLegacyToken(Date issuedAt) {
+        return legacyIssuedBefore != null
+                && issuedAt != null
+                && issuedAt.toInstant().isBefore(legacyIssuedBefore)
+                && Instant.now().isBefore(legacyAcceptedUntil);
+    }
+
+    /**
+     * Finds a key of the local copy of the ring.
+     *
+     * @param kid the key id
+     * @return the key, or null if unknown
+     */
+    private JwtSigningKey findKey(String kid) {
+        for (JwtSigningKey key : keys) {
+            if (kid.equals(key.getKid())) {
+                return key;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Reloads the ring from the table when a token names an unknown key, which happens for tokens signed by an
+     * instance that rotated the ring since the last refresh. Reloads are spaced out so that forged key ids cannot
+     * turn into a query per request.
+     *
+     * @return true if the ring was reloaded
+     */
+    private boolean reloadIfStale() {
+        long last = lastReload.get();
+        long now = System.currentTimeMillis();
+
+        if (algorithm.isHmac() || now - last < MIN_RELOAD_INTERVAL_MILLIS || !lastReload.compareAndSet(last, now)) {
+            return false;
+        }
+
+        keys = toRing(signingKeyRepository.findAll());
+        return true;
+    }
+
+    /**
+     * Creates the ring if the table is empty, or rotates it if the active key is due. Must run in a transaction.
+     *
+     * @param now the current time
+     * @return the keys of the ring after the change
+     */
+    private List<SigningKey> rotateIfDue(Instant now) {
+        List<SigningKey> stored = signingKeyRepository.lockAll();
+
+        if (stored.isEmpty()) {
+            log.info("Creating the shared {} signing key ring", algorithm);
+            return signingKeyRepository.saveAll(List.of(generateKey(SigningKeyState.ACTIVE, now), generateKey(SigningKeyState.PENDING, now)));
+        }
+
+        boolean due = stored.stream()
+                .filter(key -> key.getState() == SigningKeyState.ACTIVE)
+                .allMatch(key -> !key.getSince().plusSeconds(rotationInterval).isAfter(now));
+
+        if (!due) {
+            return stored;
+        }
+
+        Instant dropBefore = now.minus(Duration.ofSeconds(Math.max(jwtTokenLongevity, jwtRefreshTokenLongevity)));
+        List<SigningKey> rotated = new ArrayList<>();
+        List<SigningKey> dropped = new ArrayList<>();
+
+        for (SigningKey key : stored) {
+            switch (key.getState()) {
+                case PENDING -> moveTo(key, SigningKeyState.ACTIVE, now);
+                case ACTIVE -> moveTo(key, SigningKeyState.RETIRING, now);
+                case RETIRING -> {
+                    if (!key.getSince().isAfter(dropBefore)) {
+                        dropped.add(key);
+                        continue;
+                    }
+                }
+            }
+            rotated.add(key);
+        }
+        rotated.add(signingKeyRepository.save(generateKey(SigningKeyState.PENDING, now)));
+        signingKeyRepository.deleteAll(dropped);
+
+        log.info("Rotated JWT signing keys, {} keys in the ring", rotated.size());
+        return rotated;
+    }
+
+    private static void moveTo(SigningKey key, SigningKeyState state, Instant now) {
+        key.setState(state);
+        key.setSince(now);
+    }
+
+    /**
+     * Generates a new asymmetric key pair for the configured algorithm, its private half sealed to its key id.
+     *
+     * @param state the initial state of the key
+     * @param now   the creation time
+     * @return the generated key, not yet saved
+     */
+    private SigningKey generateKey(SigningKeyState state, Instant now) {
+        KeyPair keyPair = Keys.keyPairFor(algorithm);
+        byte[] kidBytes = new byte[9];
+        RANDOM.nextBytes(kidBytes);
+        String kid = Base64.getUrlEncoder().withoutPadding().encodeToString(kidBytes);
+
+        return SigningKey.builder()
+                .kid(kid)
+                .algorithm(algorithm.getValue())
+                .sealedPrivateKey(privateKeySealer.seal(keyPair.getPrivate().getEncoded(), kid.getBytes(StandardCharsets.US_ASCII)))
+                .publicKey(keyPair.getPublic().getEncoded())
+                .state(state)
+                .since(now)
+                .build();
+    }
+
+    /**
+     * Builds the local copy of the ring, reusing the decoded keys already known so that only new keys are opened.
+     *
+     * @param stored the keys of the table
+     * @return the immutable ring
+     */
+    private List<JwtSigningKey> toRing(List<SigningKey> stored) {
+        Map<String, JwtSigningKey> known = new HashMap<>();
+        keys.forEach(key -> known.put(key.getKid(), key));
+
+        List<JwtSigningKey> ring = new ArrayList<>(stored.size());
+
+        for (SigningKey key : stored) {
+            JwtSigningKey current = known.get(key.getKid());
+
+            ring.add(current != null
+                    ? current.withState(key.getState(), key.getSince())
+                    : decode(key));
+        }
+
+        return List.copyOf(ring);
+    }
+
+    /**
+     * Opens the private half of a stored key and decodes both halves.
+     *
+     * @param key the stored key
+     * @return the ring entry
+     */
+    private JwtSigningKey decode(SigningKey key) {
+        SignatureAlgorithm keyAlgorithm = SignatureAlgorithm.forName(key.getAlgorithm());
+        byte[] privateKey = privateKeySealer.open(key.getSealedPrivateKey(), key.getKid().getBytes(StandardCharsets.US_ASCII));
+
+        try {
+            KeyFactory keyFactory = KeyFactory.getInstance(keyAlgorithm.isRsa() ? "RSA" : "EC");
+
+            return new JwtSigningKey(
+                    key.getKid(),
+                    keyAlgorithm,
+                    keyFactory.generatePrivate(new PKCS8EncodedKeySpec(privateKey)),
+                    keyFactory.generatePublic(new X509EncodedKeySpec(key.getPublicKey())),
+                    key.getState(),
+                    key.getSince()
+            );
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not decode the JWT signing key " + key.getKid(), e);
+        }
+    }
+
+    /**
+     * Converts the public half of a key to its JWK representation.
+     *
+     * @param key the key to convert
+     * @return the JWK members
+     */
+    private Map<String, Object> toJwk(JwtSigningKey key) {
+        Map<String, Object> jwk = new LinkedHashMap<>();
+        jwk.put("kid", key.getKid());
+        jwk.put("use", "sig");
+        jwk.put("alg", key.getAlgorithm().getValue());
+
+        if (key.getVerificationKey() instanceof RSAPublicKey rsa) {
+            jwk.put("kty", "RSA");
+            jwk.put("n", base64Url(rsa.getModulus(), 0));
+            jwk.put("e", base64Url(rsa.getPublicExponent(), 0));
+        } else if (key.getVerificationKey() instanceof ECPublicKey ec) {
+            int fieldSize = (ec.getParams().getCurve().getField().getFieldSize() + 7) / 8;
+            jwk.put("kty", "EC");
+            jwk.put("crv", switch (key.getAlgorithm()) {
+                case ES384 -> "P-384";
+                case ES512 -> "P-521";
+                default -> "P-256";
+            });
+            jwk.put("x", base64Url(ec.getW().getAffineX(), fieldSize));
+            jwk.put("y", base64Url(ec.getW().getAffineY(), fieldSize));
+        }
+
+        return jwk;
+    }
+
+    /**
+     * Encodes an unsigned big-endian integer as base64url, left-padded to the given length.
+     *
+     * @param value  the value to encode
+     * @param length the minimum length in bytes, or 0 for the minimal encoding
+     * @return the base64url encoded value
+     */
+    private static String base64Url(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        int offset = bytes.length > 1 && bytes[0] == 0 ? 1 : 0;
+        int size = Math.max(bytes.length - offset, length);
+        byte[] unsigned = new byte[size];
+        System.arraycopy(bytes, offset, unsigned, size - (bytes.length - offset), bytes.length - offset);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(unsigned);
+    }
+}
@@ -1,21 +1,20 @@
 package org.tedygabrielmoisa.authenticationserver.services;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.SignatureAlgorithm;
-import io.jsonwebtoken.io.Decoders;
-import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.tedygabrielmoisa.authenticationserver.entities.Token;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
 import org.tedygabrielmoisa.authenticationserver.entities.User;
-import org.tedygabrielmoisa.authenticationserver.repositories.TokenRepository;
-import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
 
-import java.security.Key;
+import java.security.SecureRandom;
 import java.util.*;
 import java.util.function.Function;
 
@@ -26,15 +25,54 @@ import java.util.function.Function;
 @RequiredArgsConstructor
 public class JwtService {
 
+    /**
+     * Name of the claim carrying the user's token epoch.
+     */
+    public static final String EPOCH_CLAIM = "epoch";
+
+    /**
+     * Name of the claim carrying the user's identifier in stateless mode.
+     */
+    public static final String UID_CLAIM = "uid";
+
+    /**
+     * Name of the claim carrying the user's role in stateless mode.
+     */
+    public static final String ROLE_CLAIM = "role";
+
+    private static final SecureRandom TOKEN_IDS = new SecureRandom();
+
+    @Value("${application.security.jwt.stateless}")
+    private boolean stateless;
     @Value("${application.security.jwt.longevity}")
     private long jwtTokenLongevity;
     @Value("${application.security.jwt.refresh-token.longevity}")
     private long jwtRefreshTokenLongevity;
-    @Value("${application.security.jwt.secret-key}")
-    private String jwtSecretKey;
 
-    private final TokenRepository tokenRepository;
-    private final UserRepository userRepository;
+    private final JwtKeyRing jwtKeyRing;
+    private final JwtTokenMinter jwtTokenMinter;
+
+    private JwtParser jwtParser;
+    private Hs256TokenVerifier hs256TokenVerifier;
+
+    /**
+     * Builds the parser once, it is immutable and thread-safe and resolves keys through the {@link JwtKeyRing}.
+     * With the HS256 algorithm, tokens are verified on the allocation-light fast path first. With an asymmetric one,
+     * the remaining HS256 tokens of the transition are left to the parser, which checks the transition window.
+     */
+    @PostConstruct
+    void init() {
+        jwtParser = Jwts
+                .parserBuilder()
+                .setSigningKeyResolver(jwtKeyRing)
+                .build();
+
+        JwtSigningKey legacyKey = jwtKeyRing.getLegacyKey();
+
+        if (legacyKey != null && jwtKeyRing.isHmac()) {
+            hs256TokenVerifier = new Hs256TokenVerifier(legacyKey.getSigningKey().getEncoded());
+        }
+    }
 
     /**
      * Generates a JWT token for the specified user with default claims.
@@ -43,7 +81,7 @@ public class JwtService {
      * @return the generated JWT token
      */
     public String generateJwtToken(User user) {
-        return generateJwtToken(new HashMap<>(), user);
+        return mintToken(user.getEmail(), user.getTokenEpoch(), System.currentTimeMillis() / 1000, jwtTokenLongevity, null, null).getToken();
     }
 
     /**
@@ -54,136 +92,217 @@ public class JwtService {
      * @return the generated JWT token
      */
     public String generateJwtToken(Map<String, Object> extraClaims, User user) {
-        return buildToken(extraClaims, user, jwtTokenLongevity * 1000);
+        if (extraClaims.isEmpty()) {
+            return generateJwtToken(user);
+        }
+
+        return buildToken(extraClaims, user.getEmail(), user.getTokenEpoch(), jwtTokenLongevity * 1000, null).getToken();
     }
 
     /**
      * Generates a JWT refresh token for the specified user.
      *
      * @param user the user for whom the refresh token is being generated
-     * @return the generated JWT refresh token
+     * @return the generated JWT refresh token together with its claims
      */
-    public String generateJwtRefreshToken(User user) {
-        return buildToken(new HashMap<>(), user, jwtRefreshTokenLongevity * 1000);
+    public VerifiedToken generateJwtRefreshToken(User user) {
+        return mintToken(user.getEmail(), user.getTokenEpoch(), System.currentTimeMillis() / 1000, jwtRefreshTokenLongevity, null, newTokenId());
     }
 
     /**
-     * Builds a JWT token with the specified claims, user, and expiration time.
+     * Generates the access and refresh tokens of a login in one call, sharing the signing key and issue time.
      *
-     * @param extraClaims additional claims to be included in the token
-     * @param user the user for whom the token is being generated
-     * @param expiration the expiration time in milliseconds
-     * @return the generated JWT token
+     * @param user the user for whom the tokens are being generated
+     * @return the access and refresh tokens
      */
-    private String buildToken(Map<String, Object> extraClaims, User user, long expiration) {
-        return Jwts
-                .builder()
-                .setClaims(extraClaims)
-                .setSubject(user.getEmail())
-                .setIssuedAt(new Date(System.currentTimeMillis()))
-                .setExpiration(new Date(System.currentTimeMillis() + expiration))
-                .signWith(getSignInKey(), SignatureAlgorithm.HS256)
-                .compact();
+    public TokenPair generateTokenPair(AuthPrincipal user) {
+        return generateTokenPair(user.getEmail(), user.getTokenEpoch(), user);
     }
 
     /**
-     * Validates the JWT token for the specified username.
+     * Generates the access and refresh tokens for a subject whose token epoch is already known,
+     * without loading the user.
      *
-     * @param token the JWT token to be validated
-     * @param username the username to validate against
-     * @return true if the token is valid, false otherwise
+     * @param subject the email of the user
+     * @param epoch the current token epoch of the user
+     * @return the access and refresh tokens
      */
-    public boolean isTokenValid(String token, String username) {
-        final String userDsxlog = extractJwtSubject(token);
-        return (userDsxlog.equals(username)) && !isTokenExpired(token);
+    public TokenPair generateTokenPair(String subject, long epoch) {
+        return generateTokenPair(subject, epoch, null);
     }
 
     /**
-     * Checks if the JWT token is expired.
+     * Generates the access and refresh tokens for a subject whose token epoch is already known.
+     * In stateless mode, the identifier and role of the principal are embedded in the access token only,
+     * so that the refresh token keeps going through the database-checked path. The refresh token gets a random
+     * {@code jti}, so that a rotation within the second the presented token was minted still yields a distinct token.
      *
-     * @param token the JWT token to be checked
-     * @return true if the token is expired, false otherwise
+     * @param subject the email of the user
+     * @param epoch the current token epoch of the user
+     * @param principal the principal whose claims are embedded in stateless mode, or null
+     * @return the access and refresh tokens
      */
-    private boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
+    public TokenPair generateTokenPair(String subject, long epoch, AuthPrincipal principal) {
+        long now = System.currentTimeMillis() / 1000;
+
+        return new TokenPair(
+                mintToken(subject, epoch, now, jwtTokenLongevity, stateless ? principal : null, null),
+                mintToken(subject, epoch, now, jwtRefreshTokenLongevity, null, newTokenId())
+        );
     }
 
     /**
-     * Checks if a refresh token is present for the specified user email.
+     * Indicates whether access tokens carry the principal claims and are authenticated without a lookup.
      *
-     * @param userEmail the user's email
-     * @return true if a refresh token exists, false otherwise
+     * @return true in stateless mode
      */
-    public boolean isRefreshTokenPreset(String userEmail) {
-        Optional<User> user = userRepository.findUserByEmail(userEmail);
-        if (user.isEmpty()) {
-            return false;
-        }
-        Optional<List<Token>> dbToken = tokenRepository.findByUserId(user.get().getId());
-        if (dbToken.isPresent()) {
-            List<Token> tokenList = dbToken.get();
-            return tokenList.stream().anyMatch(tck -> !tck.isExpired() && !tck.isRevoked());
-        }
-        return false;
+    public boolean isStateless() {
+        return stateless;
     }
 
     /**
-     * Extracts the JWT token from the HTTP request cookies.
+     * Mints a token with the default claims through the {@link JwtTokenMinter}, falling back to the jjwt builder
+     * for signing algorithms the minter does not support.
      *
-     * @param request the HTTP request
-     * @return the extracted JWT token, or null if not found
+     * @param subject the email of the user for whom the token is being generated
+     * @param epoch the token epoch of the user
+     * @param issuedAt the issue time in epoch seconds
+     * @param longevity the token lifetime in seconds
+     * @param principal the principal whose identifier and role are embedded, or null
+     * @param tokenId the {@code jti} claim, or null
+     * @return the minted token together with its claims
      */
-    public String getCookieToken(HttpServletRequest request) {
-        Cookie[] cookies = request.getCookies();
-        if (cookies != null) {
-            for (Cookie cookie : cookies) {
-                if (cookie.getName().equals("token")) {
-                    return cookie.getValue();
-                }
+    private VerifiedToken mintToken(String subject, long epoch, long issuedAt, long longevity, AuthPrincipal principal, String tokenId) {
+        JwtSigningKey key = jwtKeyRing.getActiveKey();
+        Integer userId = principal != null ? principal.getId() : null;
+        String role = principal != null ? principal.getRole().name() : null;
+
+        if (!jwtTokenMinter.supports(key)) {
+            Map<String, Object> claims = new HashMap<>();
+
+            if (principal != null) {
+                claims.put(UID_CLAIM, userId);
+                claims.put(ROLE_CLAIM, role);
             }
+
+            return buildToken(claims, subject, epoch, longevity * 1000, tokenId);
         }
-        return null;
+
+        return jwtTokenMinter.mint(key, subject, issuedAt, issuedAt + longevity, epoch, userId, role, tokenId);
     }
 
     /**
-     * Extracts the subject (username) from the JWT token.
+     * Generates the random {@code jti} of a refresh token.
      *
-     * @param token the JWT token
-     * @return the subject, or null if extraction fails
+     * @return 128 random bits, base64url encoded
      */
-    public String extractJwtSubject(String token) {
-        try {
-            return extractClaim(token, Claims::getSubject);
-        } catch (Exception e) {
-            return null;
+    private static String newTokenId() {
+        byte[] id = new byte[16];
+        TOKEN_IDS.nextBytes(id);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(id);
+    }
+
+    /**
+     * Builds a JWT token with the specified claims, subject, and expiration time.
+     *
+     * @param extraClaims additional claims to be included in the token
+     * @param subject the email of the user for whom the token is being generated
+     * @param epoch the token epoch of the user
+     * @param expiration the expiration time in milliseconds
+     * @param tokenId the {@code jti} claim, or null
+     * @return the generated token together with its already known claims
+     */
+    private VerifiedToken buildToken(Map<String, Object> extraClaims, String subject, long epoch, long expiration, String tokenId) {
+        long now = System.currentTimeMillis();
+        Date issuedAt = new Date(now);
+        Date expiresAt = new Date(now + expiration);
+        JwtSigningKey key = jwtKeyRing.getActiveKey();
+
+        JwtBuilder builder = Jwts
+                .builder()
+                .setClaims(extraClaims)
+                .setSubject(subject)
+                .setIssuedAt(issuedAt)
+                .setExpiration(expiresAt)
+                .setId(tokenId);
+
+        if (key.getKid() != null) {
+            builder.setHeaderParam(JwsHeader.KEY_ID, key.getKid());
         }
+
+        String token = builder
+                .claim(EPOCH_CLAIM, epoch)
+                .signWith(key.getSigningKey(), key.getAlgorithm())
+                .compact();
+
+        return new VerifiedToken(
+                token,
+                subject,
+                issuedAt.getTime() / 1000,
+                expiresAt.getTime() / 1000,
+                epoch,
+                extraClaims.get(UID_CLAIM) instanceof Integer userId ? userId : null,
+                extraClaims.get(ROLE_CLAIM) instanceof String role ? role : null,
+                tokenId
+        );
     }
 
     /**
-     * Extracts the expiration date from the JWT token.
+     * Verifies the signature and expiration of the JWT token in a single parsing pass.
+     * Tokens the {@link Hs256TokenVerifier} does not handle are parsed by jjwt.
      *
-     * @param token the JWT token
-     * @return the expiration date, or null if extraction fails
+     * @param token the JWT token to be verified
+     * @return the verified token, or null if the token is malformed, forged or expired
      */
-    public Date extractExpiration(String token) {
+    public VerifiedToken verifyToken(String token) {
+        if (hs256TokenVerifier != null) {
+            VerifiedToken verifiedToken = hs256TokenVerifier.verify(token);
+
+            if (verifiedToken == Hs256TokenVerifier.REJECTED) {
+                return null;
+            }
+            if (verifiedToken != null) {
+                return verifiedToken;
+            }
+        }
+
         try {
-            return extractClaim(token, Claims::getExpiration);
+            Claims claims = extractAllClaims(token);
+            Date issuedAt = claims.getIssuedAt();
+            Long epoch = claims.get(EPOCH_CLAIM, Long.class);
+
+            return new VerifiedToken(
+                    token,
+                    claims.getSubject(),
+                    issuedAt != null ? issuedAt.getTime() / 1000 : 0,
+                    claims.getExpiration().getTime() / 1000,
+                    epoch != null ? epoch : 0,
+                    claims.get(UID_CLAIM, Integer.class),
+                    claims.get(ROLE_CLAIM, String.class),
+                    claims.getId()
+            );
         } catch (Exception e) {
             return null;
         }
     }
 
     /**
-     * Extracts the duration (in seconds) until the token's expiration.
+     * Extracts the JWT token from the HTTP request cookies.
      *
-     * @param token the JWT token
-     * @return the duration in seconds
+     * @param request the HTTP request
+     * @return the extracted JWT token, or null if not found
      */
-    public int extractDuration(String token) {
-        Date expiration = extractExpiration(token);
-        Date now = new Date();
-
-        return (int) ((expiration.getTime() - now.getTime()) / 1000);
+    public String getCookieToken(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (cookie.getName().equals("token")) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
     }
 
     /**
@@ -206,21 +325,8 @@ public class JwtService {
      * @return the claims
      */
     private Claims extractAllClaims(String token) {
-        return Jwts
-                .parserBuilder()
-                .setSigningKey(getSignInKey())
-                .build()
+        return jwtParser
                 .parseClaimsJws(token)
                 .getBody();
     }
-
-    /**
-     * Gets the signing key from the secret key.
-     *
-     * @return the signing key
-     */
-    private Key getSignInKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(jwtSecretKey);
-        return Keys.hmacShaKeyFor(keyBytes);
-    }
 }
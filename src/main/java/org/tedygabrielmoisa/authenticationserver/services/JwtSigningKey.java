@@ -0,0 +1,98 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+import lombok.Getter;
+import org.tedygabrielmoisa.authenticationserver.enums.SigningKeyState;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Immutable entry of the {@link JwtKeyRing}.
+ * Symmetric keys use the same key for signing and verification and carry no key id.
+ */
+@Getter
+public final class JwtSigningKey {
+
+    /**
+     * The key id written to the {@code kid} header, or null for the legacy HMAC key.
+     */
+    private final String kid;
+
+    /**
+     * The algorithm the key signs with.
+     */
+    private final SignatureAlgorithm algorithm;
+
+    /**
+     * The private (or secret) key used for signing.
+     */
+    private final Key signingKey;
+
+    /**
+     * The public (or secret) key used for verification.
+     */
+    private final Key verificationKey;
+
+    /**
+     * The lifecycle state of the key.
+     */
+    private final SigningKeyState state;
+
+    /**
+     * The time the key entered its current state.
+     */
+    private final Instant since;
+
+    /**
+     * The base64url encoded JOSE header of tokens signed with this key, computed once.
+     */
+    private final String encodedHeader;
+
+    /**
+     * Creates a key entry and pre-encodes its JOSE header.
+     *
+     * @param kid             the key id, or null for the legacy HMAC key
+     * @param algorithm       the signing algorithm
+     * @param signingKey      the private (or secret) key
+     * @param verificationKey the public (or secret) key
+     * @param state           the lifecycle state
+     * @param since           the time the key entered its state
+     */
+    public JwtSigningKey(String kid, SignatureAlgorithm algorithm, Key signingKey, Key verificationKey,
+                         SigningKeyState state, Instant since) {
+        this.kid = kid;
+        this.algorithm = algorithm;
+        this.signingKey = signingKey;
+        this.verificationKey = verificationKey;
+        this.state = state;
+        this.since = since;
+
+        String header = kid == null
+                ? "{\"alg\":\"" + algorithm.getValue() + "\"}"
+                : "{\"alg\":\"" + algorithm.getValue() + "\",\"kid\":\"" + kid + "\"}";
+        this.encodedHeader = Base64.getUrlEncoder().withoutPadding().encodeToString(header.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Returns a copy of this key moved to the given state.
+     *
+     * @param newState the new lifecycle state
+     * @param at       the time of the transition
+     * @return the key in its new state
+     */
+    public JwtSigningKey withState(SigningKeyState newState, Instant at) {
+        return new JwtSigningKey(kid, algorithm, signingKey, verificationKey, newState, at);
+    }
+
+    /**
+     * Indicates whether the key is asymmetric and can therefore be published in the JWKS.
+     *
+     * @return true for RSA and EC keys, false for HMAC keys
+     */
+    public boolean isPublishable() {
+        return algorithm.isRsa() || algorithm.isEllipticCurve();
+    }
+}
@@ -0,0 +1,268 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Mints the tokens issued at login without going through the generic jjwt builder.
+ * <p>
+ * The JOSE header comes pre-encoded from the {@link JwtSigningKey}, the claims are written from a fixed template
+ * straight into a pooled byte buffer, and the signing input is signed in place with a pooled {@link Mac} or
+ * {@link Signature}. Only one {@link String} is allocated per token. The pool is striped rather than thread-local, so
+ * the buffers stay reused when every request runs on a virtual thread of its own.
+ */
+@Component
+public class JwtTokenMinter {
+
+    private static final byte[] BASE64_URL =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+
+    private final StripedPool<Buffers> buffers = new StripedPool<>(Buffers::new);
+
+    /**
+     * Indicates whether the key can be used by this minter.
+     *
+     * @param key the signing key
+     * @return true for HMAC, RSA PKCS#1 and ECDSA keys
+     */
+    public boolean supports(JwtSigningKey key) {
+        return key.getAlgorithm().isHmac() || key.getAlgorithm().isEllipticCurve()
+                || key.getAlgorithm().getValue().startsWith("RS");
+    }
+
+    /**
+     * Mints a signed token with the {@code sub}, {@code iat}, {@code exp} and {@code epoch} claims.
+     *
+     * @param key       the signing key
+     * @param subject   the subject (user email)
+     * @param issuedAt  the issued-at time, in epoch seconds
+     * @param expiresAt the expiration time, in epoch seconds
+     * @param epoch     the token epoch of the user
+     * @return the minted token together with its claims
+     */
+    public VerifiedToken mint(JwtSigningKey key, String subject, long issuedAt, long expiresAt, long epoch) {
+        return mint(key, subject, issuedAt, expiresAt, epoch, null, null);
+    }
+
+    /**
+     * Mints a signed token with the {@code sub}, {@code iat}, {@code exp} and {@code epoch} claims, followed by the
+     * {@code uid} and {@code role} claims when given.
+     *
+     * @param key       the signing key
+     * @param subject   the subject (user email)
+     * @param issuedAt  the issued-at time, in epoch seconds
+     * @param expiresAt the expiration time, in epoch seconds
+     * @param epoch     the token epoch of the user
+     * @param userId    the identifier of the user, or null
+     * @param role      the role of the user, or null
+     * @return the minted token together with its claims
+     */
+    public VerifiedToken mint(JwtSigningKey key, String subject, long issuedAt, long expiresAt, long epoch,
+                              Integer userId, String role) {
+        return mint(key, subject, issuedAt, expiresAt, epoch, userId, role, null);
+    }
+
+    /**
+     * Mints a signed token with the {@code sub}, {@code iat}, {@code exp} and {@code epoch} claims, followed by the
+     * {@code uid} and {@code role} claims and the {@code jti} claim when given.
+     *
+     * @param key       the signing key
+     * @param subject   the subject (user email)
+     * @param issuedAt  the issued-at time, in epoch seconds
+     * @param expiresAt the expiration time, in epoch seconds
+     * @param epoch     the token epoch of the user
+     * @param userId    the identifier of the user, or null
+     * @param role      the role of the user, or null
+     * @param tokenId   the unique id of the token, made of base64url characters, or null
+     * @return the minted token together with its claims
+     */
+    public VerifiedToken mint(JwtSigningKey key, String subject, long issuedAt, long expiresAt, long epoch,
+                              Integer userId, String role, String tokenId) {
+        Buffers b = buffers.acquire();
+        try {
+            return mint(b, key, subject, issuedAt, expiresAt, epoch, userId, role, tokenId);
+        } finally {
+            buffers.release(b);
+        }
+    }
+
+    private VerifiedToken mint(Buffers b, JwtSigningKey key, String subject, long issuedAt, long expiresAt, long epoch,
+                               Integer userId, String role, String tokenId) {
+        b.claims.reset();
+        b.claims.ascii("{\"sub\":\"").string(subject)
+                .ascii("\",\"iat\":").number(issuedAt)
+                .ascii(",\"exp\":").number(expiresAt)
+                .ascii(",\"" + JwtService.EPOCH_CLAIM + "\":").number(epoch);
+
+        if (userId != null && role != null) {
+            b.claims.ascii(",\"" + JwtService.UID_CLAIM + "\":").number(userId)
+                    .ascii(",\"" + JwtService.ROLE_CLAIM + "\":\"").string(role).ascii("\"");
+        }
+
+        if (tokenId != null) {
+            b.claims.ascii(",\"jti\":\"").string(tokenId).ascii("\"");
+        }
+
+        b.claims.ascii("}");
+
+        ByteWriter out = b.token;
+        out.reset();
+        out.ascii(key.getEncodedHeader()).ascii(".");
+        out.base64Url(b.claims.bytes, 0, b.claims.length);
+
+        byte[] signature = sign(b, key, out.bytes, out.length);
+        out.ascii(".");
+        out.base64Url(signature, 0, signature.length);
+
+        String token = new String(out.bytes, 0, out.length, StandardCharsets.ISO_8859_1);
+
+        return new VerifiedToken(token, subject, issuedAt, expiresAt, epoch, userId, role, tokenId);
+    }
+
+    /**
+     * Signs the signing input with the pooled primitive for the key's algorithm.
+     *
+     * @param b      the buffers acquired by the current thread
+     * @param key    the signing key
+     * @param input  the signing input
+     * @param length the length of the signing input
+     * @return the JWS signature
+     */
+    private byte[] sign(Buffers b, JwtSigningKey key, byte[] input, int length) {
+        try {
+            if (key.getAlgorithm().isHmac()) {
+                String jcaName = key.getAlgorithm().getJcaName();
+                Mac mac = b.macs.get(jcaName);
+
+                if (mac == null) {
+                    mac = Mac.getInstance(jcaName);
+                    b.macs.put(jcaName, mac);
+                }
+                if (b.macKeys.get(jcaName) != key.getSigningKey()) {
+                    mac.init(key.getSigningKey());
+                    b.macKeys.put(jcaName, key.getSigningKey());
+                }
+
+                mac.update(input, 0, length);
+                return mac.doFinal();
+            }
+
+            String jcaName = key.getAlgorithm().isEllipticCurve()
+                    ? key.getAlgorithm().getJcaName() + "inP1363Format"
+                    : key.getAlgorithm().getJcaName();
+            Signature signature = b.signatures.get(jcaName);
+
+            if (signature == null) {
+                signature = Signature.getInstance(jcaName);
+                b.signatures.put(jcaName, signature);
+            }
+
+            signature.initSign((PrivateKey) key.getSigningKey());
+            signature.update(input, 0, length);
+            return signature.sign();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not sign token with " + key.getAlgorithm(), e);
+        }
+    }
+
+    /**
+     * Reusable buffers and signing primitives, used by one thread at a time.
+     */
+    private static final class Buffers {
+        private final ByteWriter claims = new ByteWriter();
+        private final ByteWriter token = new ByteWriter();
+        private final Map<String, Mac> macs = new HashMap<>();
+        private final Map<String, Key> macKeys = new HashMap<>();
+        private final Map<String, Signature> signatures = new HashMap<>();
+    }
+
+    /**
+     * Growable byte buffer with the few writers the token template needs.
+     */
+    private static final class ByteWriter {
+        private byte[] bytes = new byte[512];
+        private int length;
+
+        void reset() {
+            length = 0;
+        }
+
+        ByteWriter ascii(String value) {
+            ensure(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                bytes[length++] = (byte) value.charAt(i);
+            }
+            return this;
+        }
+
+        ByteWriter number(long value) {
+            return ascii(Long.toString(value));
+        }
+
+        ByteWriter string(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+
+                if (c == '"' || c == '\\') {
+                    ensure(2);
+                    bytes[length++] = '\\';
+                    bytes[length++] = (byte) c;
+                } else if (c < 0x20) {
+                    ascii(String.format("\\u%04x", (int) c));
+                } else if (c < 0x80) {
+                    ensure(1);
+                    bytes[length++] = (byte) c;
+                } else {
+                    int end = Character.isHighSurrogate(c) && i + 1 < value.length() ? i + 2 : i + 1;
+                    byte[] utf8 = value.substring(i, end).getBytes(StandardCharsets.UTF_8);
+                    ensure(utf8.length);
+                    System.arraycopy(utf8, 0, bytes, length, utf8.length);
+                    length += utf8.length;
+                    i = end - 1;
+                }
+            }
+            return this;
+        }
+
+        ByteWriter base64Url(byte[] source, int offset, int count) {
+            ensure((count + 2) / 3 * 4);
+            int end = offset + count;
+            int i = offset;
+
+            for (; i + 2 < end; i += 3) {
+                int block = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | (source[i + 2] & 0xff);
+                bytes[length++] = BASE64_URL[block >>> 18];
+                bytes[length++] = BASE64_URL[(block >>> 12) & 0x3f];
+                bytes[length++] = BASE64_URL[(block >>> 6) & 0x3f];
+                bytes[length++] = BASE64_URL[block & 0x3f];
+            }
+
+            if (end - i == 1) {
+                int block = (source[i] & 0xff) << 16;
+                bytes[length++] = BASE64_URL[block >>> 18];
+                bytes[length++] = BASE64_URL[(block >>> 12) & 0x3f];
+            } else if (end - i == 2) {
+                int block = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8;
+                bytes[length++] = BASE64_URL[block >>> 18];
+                bytes[length++] = BASE64_URL[(block >>> 12) & 0x3f];
+                bytes[length++] = BASE64_URL[(block >>> 6) & 0x3f];
+            }
+            return this;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+}
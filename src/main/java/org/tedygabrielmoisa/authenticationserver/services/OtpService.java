@@ -1,43 +1,130 @@
 package org.tedygabrielmoisa.authenticationserver.services;
 
-import lombok.RequiredArgsConstructor;
+import io.jsonwebtoken.io.Decoders;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.tedygabrielmoisa.authenticationserver.entities.Otp;
+import org.springframework.transaction.annotation.Transactional;
+import org.tedygabrielmoisa.authenticationserver.stores.OtpStore;
+import org.tedygabrielmoisa.authenticationserver.stores.StoredOtp;
 
-import java.security.NoSuchAlgorithmException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
-import java.time.LocalDateTime;
 
 /**
  * Service responsible for generating and validating OTPs (One-Time Passwords).
+ * <p>
+ * A code has only a few thousand possible values, so a slow hash adds no security: codes are stored as an HMAC keyed
+ * with a server secret derived from the JWT secret and salted per row, and brute force is bounded by a failed attempt
+ * counter instead.
  */
 @Service
-@RequiredArgsConstructor
 public class OtpService {
 
+    private static final int SALT_BYTES = 16;
+
+    private final OtpStore otpStore;
+    private final SecretKeySpec otpKey;
+    private final long longevity;
+    private final int maxAttempts;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Creates the service.
+     *
+     * @param otpStore     the store of the OTPs
+     * @param jwtSecretKey the base64 JWT secret the OTP key is derived from
+     * @param longevity    the time a code is valid, in seconds
+     * @param maxAttempts  the number of verifications allowed per code
+     */
+    public OtpService(
+            OtpStore otpStore,
+            @Value("${application.security.jwt.secret-key}") String jwtSecretKey,
+            @Value("${application.security.otp.longevity}") long longevity,
+            @Value("${application.security.otp.max-attempts}") int maxAttempts) {
+        this.otpStore = otpStore;
+        this.otpKey = new SecretKeySpec(hmac(new SecretKeySpec(Decoders.BASE64.decode(jwtSecretKey), "HmacSHA256"),
+                "otp".getBytes(StandardCharsets.UTF_8)), "HmacSHA256");
+        this.longevity = longevity;
+        this.maxAttempts = maxAttempts;
+    }
+
     /**
-     * Generates a new OTP (One-Time Password) using a strong instance of {@link SecureRandom}.
+     * Generates a new OTP (One-Time Password) using a non-blocking {@link SecureRandom}.
      *
      * @return the generated OTP as a string
-     * @throws RuntimeException if an error occurs while generating the OTP
      */
-    public String generateOtp() throws RuntimeException {
-        try {
-            SecureRandom random = SecureRandom.getInstanceStrong();
+    public String generateOtp() {
+        return String.valueOf(random.nextInt(9000) + 1000);
+    }
 
-            return String.valueOf(random.nextInt(9000) + 1000);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Problem when generating the OTP", e);
-        }
+    /**
+     * Stores a new code for the user, replacing any previous one: a fresh salt, the keyed hash of the code and no
+     * failed attempt.
+     *
+     * @param userId the ID of the user
+     * @param code   the plain code sent to the user
+     * @return the expiration time of the code, in epoch seconds
+     */
+    public long storeCode(Integer userId, String code) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+
+        long expiresAt = System.currentTimeMillis() / 1000 + longevity;
+        otpStore.save(new StoredOtp(userId, hash(code, salt), salt, expiresAt, 0));
+
+        return expiresAt;
     }
 
     /**
-     * Checks if the provided OTP is still valid by comparing its expiration time to the current time.
+     * Verifies a code against the OTP. Every verification first takes one of the remaining attempts with an atomic
+     * update, so concurrent guesses cannot exceed the limit, and a matching code is deleted so it cannot be replayed.
      *
-     * @param otp the OTP to check for validity
-     * @return true if the OTP is still valid, false otherwise
+     * @param userId the ID of the user
+     * @param code   the code typed by the user
+     * @return true if the code matches and the OTP is neither expired nor out of attempts
      */
-    public boolean checkOtpIsValid(Otp otp) {
-        return otp.getExpiresAt().isAfter(LocalDateTime.now());
+    @Transactional
+    public boolean verify(Integer userId, String code) {
+        StoredOtp otp = otpStore.find(userId).orElse(null);
+
+        if (otp == null || !otp.isValid(System.currentTimeMillis() / 1000) || code == null) {
+            return false;
+        }
+
+        if (!otpStore.takeAttempt(userId, maxAttempts)) {
+            return false;
+        }
+
+        if (!MessageDigest.isEqual(otp.getOtpHash(), hash(code, otp.getSalt()))) {
+            return false;
+        }
+
+        otpStore.delete(userId);
+        return true;
+    }
+
+    private byte[] hash(String code, byte[] salt) {
+        byte[] codeBytes = code.getBytes(StandardCharsets.UTF_8);
+        byte[] data = new byte[salt.length + codeBytes.length];
+
+        System.arraycopy(salt, 0, data, 0, salt.length);
+        System.arraycopy(codeBytes, 0, data, salt.length, codeBytes.length);
+
+        return hmac(otpKey, data);
+    }
+
+    private static byte[] hmac(SecretKeySpec key, byte[] data) {
+        try {
+            Mac mac = Mac.getInstance(key.getAlgorithm());
+            mac.init(key);
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(key.getAlgorithm() + " is not available", e);
+        }
     }
 }
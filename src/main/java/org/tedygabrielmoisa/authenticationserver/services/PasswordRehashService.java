@@ -0,0 +1,47 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.tedygabrielmoisa.authenticationserver.authentication.PrincipalCache;
+import org.tedygabrielmoisa.authenticationserver.authentication.encoders.PasswordHashingRejectedException;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
+import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
+
+/**
+ * Write-behind upgrade of outdated password hashes, run after a successful login so that the login itself never
+ * waits for the new hash.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PasswordRehashService {
+
+    private final PasswordEncoder passwordEncoder;
+    private final UserRepository userRepository;
+    private final PrincipalCache principalCache;
+
+    /**
+     * Hashes the password again with the current algorithm and cost, and stores it unless the password changed since
+     * the login. A rehash that cannot run now is skipped, since the next login will try again.
+     *
+     * @param user        the user that just logged in
+     * @param rawPassword the password the user logged in with
+     */
+    @Async
+    @Transactional
+    public void rehash(AuthPrincipal user, String rawPassword) {
+        try {
+            String passwordHash = passwordEncoder.encode(rawPassword);
+
+            if (userRepository.updatePasswordHash(user.getId(), user.getPasswordHash(), passwordHash) > 0) {
+                principalCache.evict(user.getEmail());
+            }
+        } catch (PasswordHashingRejectedException e) {
+            log.debug("Skipped the password rehash of user {}: {}", user.getId(), e.getMessage());
+        }
+    }
+}
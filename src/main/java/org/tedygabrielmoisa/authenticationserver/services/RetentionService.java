@@ -0,0 +1,201 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.tedygabrielmoisa.authenticationserver.repositories.AuthEventRepository;
+import org.tedygabrielmoisa.authenticationserver.repositories.EmailOutboxRepository;
+import org.tedygabrielmoisa.authenticationserver.stores.OtpStore;
+import org.tedygabrielmoisa.authenticationserver.stores.TokenStore;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Background job deleting dead authentication rows: expired or revoked refresh tokens, expired OTPs, old revocation
+ * events and expired outbox emails, delivered or not.
+ * <p>
+ * Each pass deletes a bounded batch in a short transaction of its own, pausing between batches, so the job never
+ * holds long locks against the login path. Database batches are selected through an index and deleted by primary key.
+ */
+@Slf4j
+@Service
+public class RetentionService {
+
+    private final TokenStore tokenStore;
+    private final OtpStore otpStore;
+    private final AuthEventRepository authEventRepository;
+    private final EmailOutboxRepository emailOutboxRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final int batchSize;
+    private final long batchPause;
+    private final long eventRetention;
+
+    private final ReentrantLock running = new ReentrantLock();
+
+    /**
+     * Creates the retention job.
+     *
+     * @param tokenStore            the store of the refresh tokens
+     * @param otpStore              the store of the OTPs
+     * @param authEventRepository   the repository of the revocation events
+     * @param emailOutboxRepository the repository of the queued emails
+     * @param transactionTemplate   the template running each batch in its own transaction
+     * @param meterRegistry         the registry exposing the purged rows and the batch latency
+     * @param batchSize             the maximum number of rows deleted per batch
+     * @param batchPause            the pause between two batches, in milliseconds
+     * @param eventRetention        the time revocation events are kept, in seconds
+     */
+    public RetentionService(
+            TokenStore tokenStore,
+            OtpStore otpStore,
+            AuthEventRepository authEventRepository,
+            EmailOutboxRepository emailOutboxRepository,
+            TransactionTemplate transactionTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${application.security.retention.batch-size}") int batchSize,
+            @Value("${application.security.retention.batch-pause}") long batchPause,
+            @Value("${application.security.events.retention}") long eventRetention) {
+        this.tokenStore = tokenStore;
+        this.otpStore = otpStore;
+        this.authEventRepository = authEventRepository;
+        this.emailOutboxRepository = emailOutboxRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.meterRegistry = meterRegistry;
+        this.batchSize = batchSize;
+        this.batchPause = batchPause;
+        this.eventRetention = eventRetention;
+    }
+
+    /**
+     * Runs the retention job on the configured interval.
+     */
+    @Scheduled(
+            initialDelayString = "${application.security.retention.interval}",
+            fixedDelayString = "${application.security.retention.interval}",
+            timeUnit = TimeUnit.SECONDS)
+    public void scheduledPurge() {
+        purge();
+    }
+
+    /**
+     * Purges every dead row, unless a purge is already running.
+     *
+     * @return the number of deleted rows per table, or null if a purge is already running
+     */
+    public Map<String, Integer> purge() {
+        if (!running.tryLock()) {
+            return null;
+        }
+
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            long nowSeconds = System.currentTimeMillis() / 1000;
+            Map<String, Integer> purged = new LinkedHashMap<>();
+
+            purged.put("token", purge("token", () -> tokenStore.purge(nowSeconds, batchSize)));
+            purged.put("otps", purge("otps", () -> otpStore.purge(nowSeconds, batchSize)));
+            purged.put("auth_event", purge("auth_event", () -> purgeOldEvents(now.minusSeconds(eventRetention))));
+            purged.put("email_outbox", purge("email_outbox", () -> purgeExpiredEmails(now)));
+
+            if (purged.values().stream().anyMatch(count -> count > 0)) {
+                log.info("Retention purged {}", purged);
+            }
+
+            return purged;
+        } finally {
+            running.unlock();
+        }
+    }
+
+    /**
+     * Deletes one batch of events older than every instance's cursor can plausibly be.
+     *
+     * @param cutoff the time before which events are deleted
+     * @return the number of deleted rows
+     */
+    private int purgeOldEvents(LocalDateTime cutoff) {
+        List<Long> ids = authEventRepository.findIdsCreatedBefore(cutoff, PageRequest.of(0, batchSize));
+
+        if (!ids.isEmpty()) {
+            authEventRepository.deleteAllByIdInBatch(ids);
+        }
+
+        return ids.size();
+    }
+
+    /**
+     * Deletes one batch of expired emails: their codes are no longer valid, so failed emails are only kept until then.
+     *
+     * @param now the current time
+     * @return the number of deleted rows
+     */
+    private int purgeExpiredEmails(LocalDateTime now) {
+        List<Long> ids = emailOutboxRepository.findIdsExpiredBefore(now, PageRequest.of(0, batchSize));
+
+        if (!ids.isEmpty()) {
+            emailOutboxRepository.deleteAllByIdInBatch(ids);
+        }
+
+        return ids.size();
+    }
+
+    /**
+     * Deletes dead rows of one table batch by batch until none is left.
+     *
+     * @param table the name of the table, used as the metric tag
+     * @param batch deletes one batch of dead rows and returns their number
+     * @return the number of deleted rows
+     */
+    private int purge(String table, IntSupplier batch) {
+        Counter purgedRows = meterRegistry.counter("auth.retention.purged", "table", table);
+        Timer batchTimer = meterRegistry.timer("auth.retention.batch", "table", table);
+        int total = 0;
+
+        while (true) {
+            Integer deleted = batchTimer.record(() -> transactionTemplate.execute(status -> batch.getAsInt()));
+
+            if (deleted == null || deleted == 0) {
+                return total;
+            }
+
+            total += deleted;
+            purgedRows.increment(deleted);
+
+            if (deleted < batchSize || !pause()) {
+                return total;
+            }
+        }
+    }
+
+    /**
+     * Waits between two batches so that the login path can take the locks.
+     *
+     * @return false if the thread was interrupted and the purge must stop
+     */
+    private boolean pause() {
+        if (batchPause <= 0) {
+            return true;
+        }
+
+        try {
+            Thread.sleep(batchPause);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
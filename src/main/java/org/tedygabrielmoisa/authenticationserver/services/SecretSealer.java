@@ -0,0 +1,86 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * Encrypts secrets kept in the database with AES-GCM, so that reading a table does not reveal them.
+ * <p>
+ * The key is derived from the JWT secret shared by every instance and a label naming its purpose, so each use gets an
+ * independent key and any instance can open what another one sealed. The associated data binds a sealed value to the
+ * row it belongs to.
+ */
+public final class SecretSealer {
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int NONCE_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKeySpec key;
+
+    /**
+     * Derives the key of one purpose.
+     *
+     * @param secret the shared secret
+     * @param label  the purpose of the key
+     */
+    public SecretSealer(byte[] secret, String label) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            this.key = new SecretKeySpec(mac.doFinal(label.getBytes(StandardCharsets.UTF_8)), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    /**
+     * Encrypts a value under a fresh nonce.
+     *
+     * @param plain          the value to seal
+     * @param associatedData the data the value is bound to
+     * @return the nonce followed by the ciphertext and its tag
+     */
+    public byte[] seal(byte[] plain, byte[] associatedData) {
+        byte[] nonce = new byte[NONCE_BYTES];
+        RANDOM.nextBytes(nonce);
+
+        try {
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(associatedData);
+
+            byte[] ciphertext = cipher.doFinal(plain);
+            return ByteBuffer.allocate(NONCE_BYTES + ciphertext.length).put(nonce).put(ciphertext).array();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(CIPHER + " is not available", e);
+        }
+    }
+
+    /**
+     * Decrypts a sealed value.
+     *
+     * @param sealed         the nonce followed by the ciphertext and its tag
+     * @param associatedData the data the value was bound to
+     * @return the plain value
+     * @throws IllegalStateException if the value was not sealed with this key and associated data
+     */
+    public byte[] open(byte[] sealed, byte[] associatedData) {
+        try {
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, 0, NONCE_BYTES));
+            cipher.updateAAD(associatedData);
+
+            return cipher.doFinal(sealed, NONCE_BYTES, sealed.length - NONCE_BYTES);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not open a sealed value", e);
+        }
+    }
+}
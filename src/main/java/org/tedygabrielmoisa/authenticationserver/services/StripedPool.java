@@ -0,0 +1,76 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Small lock-free pool of reusable objects, such as buffers and cryptographic primitives, striped by thread so that
+ * concurrent threads rarely compete for a slot.
+ * <p>
+ * Unlike a {@link ThreadLocal}, it holds a number of objects bounded by the number of processors rather than the
+ * number of threads, so the objects stay reused when every request runs on a virtual thread of its own. An object is
+ * created when the probed slots are empty and dropped when they are full on release.
+ *
+ * @param <T> the type of the pooled objects
+ */
+final class StripedPool<T> {
+
+    private static final int PROBES = 2;
+
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final Supplier<T> factory;
+
+    /**
+     * Creates an empty pool with twice to four times as many slots as processors.
+     *
+     * @param factory creates an object when none is pooled
+     */
+    StripedPool(Supplier<T> factory) {
+        int size = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1);
+
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.factory = factory;
+    }
+
+    /**
+     * Takes an object out of the pool, creating one if the slots of the current thread are empty.
+     * It must be handed back with {@link #release(Object)} once no longer used.
+     *
+     * @return an object used by no other thread
+     */
+    T acquire() {
+        int stripe = stripe();
+
+        for (int i = 0; i < PROBES; i++) {
+            T object = slots.getAndSet((stripe + i) & mask, null);
+
+            if (object != null) {
+                return object;
+            }
+        }
+
+        return factory.get();
+    }
+
+    /**
+     * Hands an object back to the pool, dropping it if the slots of the current thread are full.
+     *
+     * @param object the object taken with {@link #acquire()}
+     */
+    void release(T object) {
+        int stripe = stripe();
+
+        for (int i = 0; i < PROBES; i++) {
+            if (slots.compareAndSet((stripe + i) & mask, null, object)) {
+                return;
+            }
+        }
+    }
+
+    private static int stripe() {
+        int hash = System.identityHashCode(Thread.currentThread());
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,39 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utility class computing fixed-length digests of tokens, so that tokens can be used as keys without keeping them around.
+ * The digest instances are pooled rather than confined to threads, so they stay reused with virtual threads.
+ */
+public final class TokenDigests {
+
+    private static final StripedPool<MessageDigest> SHA_256 = new StripedPool<>(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    private TokenDigests() {
+    }
+
+    /**
+     * Computes the SHA-256 digest of the token.
+     *
+     * @param token the token to digest
+     * @return the 32 bytes digest
+     */
+    public static byte[] sha256(String token) {
+        MessageDigest digest = SHA_256.acquire();
+        try {
+            digest.reset();
+            return digest.digest(token.getBytes(StandardCharsets.US_ASCII));
+        } finally {
+            SHA_256.release(digest);
+        }
+    }
+}
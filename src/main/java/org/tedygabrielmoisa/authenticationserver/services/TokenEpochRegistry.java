@@ -0,0 +1,172 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthEvent;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
+import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
+
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Size-bounded, time-limited in-memory view of the users' token epochs.
+ * <p>
+ * Epochs are loaded lazily on first use and kept current by the {@link AuthEventService} revocation feed,
+ * so checking whether an access token was revoked needs no query in the steady state.
+ * Entries only ever move forward, so a stale read can never resurrect a revoked token, and a dropped entry is simply
+ * loaded again on its next use. A full registry first drops its expired entries, then an arbitrary tenth of the others.
+ */
+@Service
+public class TokenEpochRegistry implements AuthEventListener {
+
+    private final UserRepository userRepository;
+    private final int maxSize;
+    private final long ttlMillis;
+
+    private final Map<String, CachedEpoch> epochs = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the registry.
+     *
+     * @param userRepository the repository the epochs are loaded from
+     * @param maxSize        the maximum number of users kept in memory
+     * @param ttlSeconds     the maximum time an epoch is trusted without being loaded again, in seconds
+     * @param meterRegistry  the registry exposing the number of cached epochs
+     */
+    public TokenEpochRegistry(
+            UserRepository userRepository,
+            @Value("${application.security.jwt.epoch.max-size}") int maxSize,
+            @Value("${application.security.jwt.epoch.ttl}") long ttlSeconds,
+            MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlSeconds * 1000;
+
+        Gauge.builder("auth.token.epoch.size", epochs, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Returns the current token epoch of the user.
+     *
+     * @param email the email of the user
+     * @return the current epoch, or {@link Long#MAX_VALUE} if the user does not exist
+     */
+    public long currentEpoch(String email) {
+        long now = System.currentTimeMillis();
+        CachedEpoch cached = epochs.get(email);
+
+        if (cached != null && cached.expiresAt() > now) {
+            return cached.epoch();
+        }
+
+        long loaded = userRepository.findTokenEpochByEmail(email).orElse(Long.MAX_VALUE);
+
+        if (loaded == Long.MAX_VALUE) {
+            return loaded;
+        }
+
+        return remember(email, loaded, now);
+    }
+
+    /**
+     * Bumps the token epoch of the user, invalidating every access token minted before.
+     * Must be called within a transaction.
+     * <p>
+     * The epoch is moved from the latest value known here to the next one with a single conditional update. Only if
+     * that value was stale does it fall back to an increment followed by a read.
+     *
+     * @param user the user whose epoch is bumped
+     * @return the new epoch of the user
+     */
+    public long bump(AuthPrincipal user) {
+        LocalDateTime now = LocalDateTime.now();
+        CachedEpoch cached = epochs.get(user.getEmail());
+        long expected = cached != null ? Math.max(cached.epoch(), user.getTokenEpoch()) : user.getTokenEpoch();
+        long epoch;
+
+        if (userRepository.advanceTokenEpoch(user.getId(), expected, expected + 1, now) == 1) {
+            epoch = expected + 1;
+        } else {
+            userRepository.incrementTokenEpoch(user.getId(), now);
+            epoch = userRepository.findTokenEpochByEmail(user.getEmail()).orElse(Long.MAX_VALUE);
+        }
+
+        remember(user.getEmail(), epoch, System.currentTimeMillis());
+
+        return epoch;
+    }
+
+    /**
+     * Moves the cached epoch of the user forward, if the user is cached.
+     *
+     * @param email the email of the user
+     * @param epoch the new epoch
+     */
+    public void advance(String email, long epoch) {
+        epochs.computeIfPresent(email, (key, current) -> new CachedEpoch(Math.max(current.epoch(), epoch), current.expiresAt()));
+    }
+
+    /**
+     * Records the epoch carried by a revocation made on any instance, even for users not cached yet, so that a later
+     * check needs no query.
+     *
+     * @param event the revocation event
+     */
+    @Override
+    public void onAuthEvent(AuthEvent event) {
+        if (event.getTokenEpoch() != null) {
+            remember(event.getEmail(), event.getTokenEpoch(), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Caches an epoch, keeping the greatest one seen and making room first if the registry is full.
+     *
+     * @param email the email of the user
+     * @param epoch the epoch of the user
+     * @param now   the current time in milliseconds
+     * @return the cached epoch, which may be greater than the given one
+     */
+    private long remember(String email, long epoch, long now) {
+        if (epochs.size() >= maxSize && !epochs.containsKey(email)) {
+            makeRoom(now);
+        }
+
+        return epochs.merge(email, new CachedEpoch(epoch, now + ttlMillis), CachedEpoch::latest).epoch();
+    }
+
+    /**
+     * Drops expired entries and, if the registry is still full, an arbitrary tenth of the remaining ones.
+     *
+     * @param now the current time in milliseconds
+     */
+    private void makeRoom(long now) {
+        epochs.values().removeIf(cached -> cached.expiresAt() <= now);
+
+        int excess = epochs.size() - maxSize + Math.max(1, maxSize / 10);
+        Iterator<String> iterator = epochs.keySet().iterator();
+
+        while (excess-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * A cached epoch and the time until which it is trusted.
+     *
+     * @param epoch     the token epoch
+     * @param expiresAt the expiration time in milliseconds
+     */
+    private record CachedEpoch(long epoch, long expiresAt) {
+
+        private CachedEpoch latest(CachedEpoch other) {
+            return new CachedEpoch(Math.max(epoch, other.epoch), Math.max(expiresAt, other.expiresAt));
+        }
+    }
+}
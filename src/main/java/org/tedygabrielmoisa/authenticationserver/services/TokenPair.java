@@ -0,0 +1,22 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * An access token and a refresh token minted together for the same user.
+ */
+@Getter
+@AllArgsConstructor
+public final class TokenPair {
+
+    /**
+     * The short-lived access token returned in the response body.
+     */
+    private final VerifiedToken accessToken;
+
+    /**
+     * The long-lived refresh token stored in the cookie.
+     */
+    private final VerifiedToken refreshToken;
+}
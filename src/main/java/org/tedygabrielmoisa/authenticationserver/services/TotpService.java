@@ -0,0 +1,434 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import io.jsonwebtoken.io.Decoders;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.tedygabrielmoisa.authenticationserver.authentication.PrincipalCache;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
+import org.tedygabrielmoisa.authenticationserver.enums.AuthEventType;
+import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Service implementing the RFC 6238 time-based one-time passwords of authenticator apps.
+ * <p>
+ * Codes are verified by HMAC computation, within a small window of time steps to absorb clock drift, and only together
+ * with the challenge handed out by the password step. The challenge is a cookie signed with a key derived from the JWT
+ * secret, so it is accepted by every instance. Replays and brute force are bounded on every instance by conditional
+ * updates of the user row: each challenge allows a limited number of attempts, only the latest challenge is accepted,
+ * and a code is refused unless its time step is later than the last one accepted. The second factor thus costs a
+ * couple of single-row updates per login, but no email.
+ * <p>
+ * Secrets are sealed with a key of their own and bound to the user id. Enrolling takes the current password, and the
+ * current code when a secret is already active, and only yields a pending secret: it replaces the active one once the
+ * user proves the app was set up by submitting a code it generated. Removing a secret takes the same proofs.
+ */
+@Service
+public class TotpService {
+
+    /**
+     * The name of the cookie carrying the challenge between the password step and the code step.
+     */
+    public static final String CHALLENGE_COOKIE = "totp_challenge";
+
+    private static final int DIGITS = 6;
+    private static final int MODULUS = 1_000_000;
+    private static final long STEP_SECONDS = 30;
+    private static final int SECRET_BYTES = 20;
+    private static final String BASE32 = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+    private final UserRepository userRepository;
+    private final PrincipalCache principalCache;
+    private final AuthEventService authEventService;
+    private final PasswordEncoder passwordEncoder;
+    private final SecretSealer secretSealer;
+    private final SecretKeySpec challengeKey;
+    private final int window;
+    private final long challengeLongevity;
+    private final int maxAttempts;
+    private final String issuer;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Creates the service.
+     *
+     * @param userRepository     the repository the secrets are enrolled in
+     * @param principalCache     the cache evicted when a secret is enrolled
+     * @param authEventService   the feed the enrollment is published to, so other instances evict the principal
+     * @param passwordEncoder    the encoder checking the password before a secret is changed
+     * @param jwtSecretKey       the base64 JWT secret the challenge and sealing keys are derived from
+     * @param window             the number of time steps accepted before and after the current one
+     * @param challengeLongevity the time the challenge of the password step is valid, in seconds
+     * @param maxAttempts        the number of codes allowed per challenge, as for emailed codes
+     * @param issuer             the issuer shown by authenticator apps
+     */
+    public TotpService(
+            UserRepository userRepository,
+            PrincipalCache principalCache,
+            AuthEventService authEventService,
+            PasswordEncoder passwordEncoder,
+            @Value("${application.security.jwt.secret-key}") String jwtSecretKey,
+            @Value("${application.security.totp.window}") int window,
+            @Value("${application.security.otp.longevity}") long challengeLongevity,
+            @Value("${application.security.otp.max-attempts}") int maxAttempts,
+            @Value("${application.security.totp.issuer}") String issuer) {
+        this.userRepository = userRepository;
+        this.principalCache = principalCache;
+        this.authEventService = authEventService;
+        this.passwordEncoder = passwordEncoder;
+
+        byte[] secret = Decoders.BASE64.decode(jwtSecretKey);
+        this.secretSealer = new SecretSealer(secret, "totp-secret");
+        this.challengeKey = new SecretKeySpec(hmac(new SecretKeySpec(secret, "HmacSHA256"),
+                "totp-challenge".getBytes(StandardCharsets.UTF_8)), "HmacSHA256");
+        this.window = window;
+        this.challengeLongevity = challengeLongevity;
+        this.maxAttempts = maxAttempts;
+        this.issuer = issuer;
+    }
+
+    /**
+     * Starts the enrollment of an authenticator app: a new secret is stored as pending, replacing any previous pending
+     * one, while the active secret, if any, keeps being required until the new one is confirmed.
+     *
+     * @param user     the user enrolling an authenticator app
+     * @param password the current password of the user
+     * @param code     a code of the active secret, required only if one is active
+     * @return the base32 secret to load into the app, or null if the password or the code is wrong
+     */
+    @Transactional
+    public String startEnrollment(AuthPrincipal user, String password, String code) {
+        if (!reauthenticate(user, password, code)) {
+            return null;
+        }
+
+        byte[] secret = new byte[SECRET_BYTES];
+        random.nextBytes(secret);
+
+        userRepository.storePendingTotpSecret(user.getId(), seal(user.getId(), secret));
+
+        return base32(secret);
+    }
+
+    /**
+     * Activates the pending secret of a user with a code it generated, and publishes the change so that every instance
+     * evicts the cached principal and requires the new secret from the next login on. Confirmations take attempts
+     * from the same limited budget as the code step of a login.
+     *
+     * @param user the user confirming the enrollment
+     * @param code a code generated by the app from the pending secret
+     * @return true if the pending secret is now the active one
+     */
+    @Transactional
+    public boolean confirmEnrollment(AuthPrincipal user, String code) {
+        byte[] pending = userRepository.findPendingTotpSecret(user.getId()).orElse(null);
+
+        if (pending == null || userRepository.takeTotpSetupAttempt(user.getId(), maxAttempts) == 0) {
+            return false;
+        }
+
+        long step = matchingStep(open(user.getId(), pending), code);
+
+        if (step < 0 || userRepository.activateTotpSecret(user.getId(), pending, step) == 0) {
+            return false;
+        }
+
+        secretChanged(user);
+        return true;
+    }
+
+    /**
+     * Removes the active and pending secrets of a user, who then gets emailed codes again.
+     *
+     * @param user     the user removing the authenticator app
+     * @param password the current password of the user
+     * @param code     a code of the active secret
+     * @return true if the secrets were removed, false if the user has none or the password or the code is wrong
+     */
+    @Transactional
+    public boolean remove(AuthPrincipal user, String password, String code) {
+        if (user.getSealedTotpSecret() == null || !reauthenticate(user, password, code)) {
+            return false;
+        }
+
+        userRepository.removeTotpSecret(user.getId());
+        secretChanged(user);
+        return true;
+    }
+
+    /**
+     * Seals the raw bytes of a TOTP secret for storage, bound to its user.
+     *
+     * @param userId the ID of the user
+     * @param secret the raw secret
+     * @return the sealed secret
+     */
+    public byte[] seal(Integer userId, byte[] secret) {
+        return secretSealer.seal(secret, String.valueOf(userId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Seals a legacy base32 TOTP secret for storage, bound to its user.
+     *
+     * @param userId the ID of the user
+     * @param secret the base32 secret
+     * @return the sealed secret
+     */
+    public byte[] sealBase32(Integer userId, String secret) {
+        return seal(userId, unbase32(secret));
+    }
+
+    /**
+     * Builds the {@code otpauth://} URI authenticator apps enroll from, usually shown as a QR code.
+     *
+     * @param email  the email of the user, used as the account name
+     * @param secret the base32 secret
+     * @return the enrollment URI
+     */
+    public String otpauthUri(String email, String secret) {
+        String label = URLEncoder.encode(issuer + ":" + email, StandardCharsets.UTF_8).replace("+", "%20");
+
+        return "otpauth://totp/" + label
+                + "?secret=" + secret
+                + "&issuer=" + URLEncoder.encode(issuer, StandardCharsets.UTF_8).replace("+", "%20")
+                + "&algorithm=SHA1&digits=" + DIGITS + "&period=" + STEP_SECONDS;
+    }
+
+    /**
+     * Hands out the challenge of a successful password step as a cookie, recording it as the only challenge of the
+     * user accepted from now on.
+     *
+     * @param user     the user that passed the password step
+     * @param response the HTTP response
+     */
+    @Transactional
+    public void setChallengeCookie(AuthPrincipal user, HttpServletResponse response) {
+        long expiresAt = System.currentTimeMillis() / 1000 + challengeLongevity;
+        long nonce = random.nextLong();
+        String challenge = user.getId() + "." + expiresAt + "." + nonce + "." + sign(user, expiresAt, nonce);
+
+        userRepository.startTotpChallenge(user.getId(), nonce);
+
+        response.addHeader("Set-Cookie", CHALLENGE_COOKIE + "=" + challenge + "; HttpOnly; Path=/auth/login; Max-Age=" + challengeLongevity);
+    }
+
+    /**
+     * Extracts the challenge from the cookies of the request.
+     *
+     * @param request the HTTP request
+     * @return the challenge, or null if none
+     */
+    public String getChallengeCookie(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (cookie.getName().equals(CHALLENGE_COOKIE)) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Verifies a code against the secret of the user, the challenge of the password step and the codes already used.
+     * Every verification with a valid challenge first takes one of its remaining attempts with a conditional update,
+     * so that concurrent guesses on any instance cannot exceed the limit.
+     *
+     * @param user      the enrolled user
+     * @param code      the code typed by the user
+     * @param challenge the challenge of the password step
+     * @return true if the code is valid and was not used before
+     */
+    @Transactional
+    public boolean verify(AuthPrincipal user, String code, String challenge) {
+        if (user.getSealedTotpSecret() == null || code == null || code.length() != DIGITS) {
+            return false;
+        }
+
+        Long nonce = checkChallenge(user, challenge);
+
+        if (nonce == null || userRepository.takeTotpAttempt(user.getId(), nonce, maxAttempts) == 0) {
+            return false;
+        }
+
+        return useActiveCode(user, code);
+    }
+
+    /**
+     * Checks the password of a user and, if a secret is active, a code of it, before the secret is changed.
+     */
+    private boolean reauthenticate(AuthPrincipal user, String password, String code) {
+        if (password == null || !passwordEncoder.matches(password, user.getPasswordHash())) {
+            return false;
+        }
+
+        return user.getSealedTotpSecret() == null || useActiveCode(user, code);
+    }
+
+    /**
+     * Accepts a code of the active secret, only if its time step is later than the last one accepted.
+     */
+    private boolean useActiveCode(AuthPrincipal user, String code) {
+        long step = matchingStep(open(user.getId(), user.getSealedTotpSecret()), code);
+
+        return step >= 0 && userRepository.useTotpStep(user.getId(), step) > 0;
+    }
+
+    /**
+     * Finds the time step, within the window around the current one, whose code is the typed one.
+     *
+     * @return the time step, or -1 if the code matches none
+     */
+    private long matchingStep(byte[] secret, String code) {
+        if (code == null || code.length() != DIGITS) {
+            return -1;
+        }
+
+        SecretKeySpec key = new SecretKeySpec(secret, "HmacSHA1");
+        byte[] typed = code.getBytes(StandardCharsets.US_ASCII);
+        long current = System.currentTimeMillis() / 1000 / STEP_SECONDS;
+
+        for (long step = current - window; step <= current + window; step++) {
+            byte[] expected = String.format("%0" + DIGITS + "d", code(key, step)).getBytes(StandardCharsets.US_ASCII);
+
+            if (MessageDigest.isEqual(expected, typed)) {
+                return step;
+            }
+        }
+
+        return -1;
+    }
+
+    private byte[] open(Integer userId, byte[] sealed) {
+        return secretSealer.open(sealed, String.valueOf(userId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Evicts the cached principal here and, through the feed, on every other instance.
+     */
+    private void secretChanged(AuthPrincipal user) {
+        principalCache.evict(user.getEmail());
+        authEventService.publish(AuthEventType.TOTP_CHANGED, user, null);
+    }
+
+    /**
+     * Checks the signature and expiration of a challenge.
+     *
+     * @return the random identifier of the challenge, or null if the challenge is invalid
+     */
+    private Long checkChallenge(AuthPrincipal user, String challenge) {
+        if (challenge == null) {
+            return null;
+        }
+
+        String[] parts = challenge.split("\\.");
+
+        if (parts.length != 4 || !parts[0].equals(String.valueOf(user.getId()))) {
+            return null;
+        }
+
+        try {
+            long expiresAt = Long.parseLong(parts[1]);
+            long nonce = Long.parseLong(parts[2]);
+
+            if (expiresAt > System.currentTimeMillis() / 1000
+                    && MessageDigest.isEqual(sign(user, expiresAt, nonce).getBytes(StandardCharsets.US_ASCII), parts[3].getBytes(StandardCharsets.US_ASCII))) {
+                return nonce;
+            }
+
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Signs a challenge, binding it to the user, its expiration, its identifier and the token epoch, so a logout
+     * voids it.
+     */
+    private String sign(AuthPrincipal user, long expiresAt, long nonce) {
+        byte[] payload = (user.getId() + "|" + expiresAt + "|" + nonce + "|" + user.getTokenEpoch()).getBytes(StandardCharsets.UTF_8);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(hmac(challengeKey, payload));
+    }
+
+    /**
+     * Computes the RFC 4226 code of a time step.
+     */
+    private static int code(SecretKeySpec key, long step) {
+        byte[] hash = hmac(key, ByteBuffer.allocate(Long.BYTES).putLong(step).array());
+        int offset = hash[hash.length - 1] & 0x0f;
+        int binary = ((hash[offset] & 0x7f) << 24)
+                | ((hash[offset + 1] & 0xff) << 16)
+                | ((hash[offset + 2] & 0xff) << 8)
+                | (hash[offset + 3] & 0xff);
+
+        return binary % MODULUS;
+    }
+
+    private static byte[] hmac(SecretKeySpec key, byte[] data) {
+        try {
+            Mac mac = Mac.getInstance(key.getAlgorithm());
+            mac.init(key);
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(key.getAlgorithm() + " is not available", e);
+        }
+    }
+
+    private static String base32(byte[] data) {
+        StringBuilder encoded = new StringBuilder((data.length * 8 + 4) / 5);
+        int buffer = 0;
+        int bits = 0;
+
+        for (byte b : data) {
+            buffer = (buffer << 8) | (b & 0xff);
+            bits += 8;
+
+            while (bits >= 5) {
+                encoded.append(BASE32.charAt((buffer >>> (bits - 5)) & 0x1f));
+                bits -= 5;
+            }
+        }
+
+        if (bits > 0) {
+            encoded.append(BASE32.charAt((buffer << (5 - bits)) & 0x1f));
+        }
+
+        return encoded.toString();
+    }
+
+    private static byte[] unbase32(String encoded) {
+        ByteBuffer decoded = ByteBuffer.allocate(encoded.length() * 5 / 8);
+        int buffer = 0;
+        int bits = 0;
+
+        for (char c : encoded.toCharArray()) {
+            buffer = (buffer << 5) | BASE32.indexOf(c);
+            bits += 5;
+
+            if (bits >= 8) {
+                decoded.put((byte) (buffer >>> (bits - 8)));
+                bits -= 8;
+            }
+        }
+
+        return decoded.array();
+    }
+}
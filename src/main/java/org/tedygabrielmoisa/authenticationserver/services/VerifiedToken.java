@@ -0,0 +1,117 @@
+package org.tedygabrielmoisa.authenticationserver.services;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Result of a single successful verification pass over a JWT.
+ * The signature and expiration have already been checked when an instance exists,
+ * so callers can read the claims they need without parsing the token again.
+ */
+@Getter
+@AllArgsConstructor
+public final class VerifiedToken {
+
+    /**
+     * Name of the request attribute holding the {@link VerifiedToken} of the current request.
+     */
+    public static final String REQUEST_ATTRIBUTE = VerifiedToken.class.getName();
+
+    /**
+     * The raw, compact JWT string.
+     */
+    private final String token;
+
+    /**
+     * The subject (user email) of the token.
+     */
+    private final String subject;
+
+    /**
+     * The issued-at time, in epoch seconds.
+     */
+    private final long issuedAt;
+
+    /**
+     * The expiration time, in epoch seconds.
+     */
+    private final long expiresAt;
+
+    /**
+     * The token epoch of the user at the time the token was minted.
+     */
+    private final long epoch;
+
+    /**
+     * The identifier of the user, only embedded in access tokens minted in stateless mode.
+     */
+    private final Integer userId;
+
+    /**
+     * The role of the user, only embedded in access tokens minted in stateless mode.
+     */
+    private final String role;
+
+    /**
+     * The random {@code jti} claim making every refresh token unique, or null for access tokens.
+     */
+    private final String tokenId;
+
+    /**
+     * Creates a verified token without a token id.
+     *
+     * @param token     the raw, compact JWT string
+     * @param subject   the subject (user email)
+     * @param issuedAt  the issued-at time, in epoch seconds
+     * @param expiresAt the expiration time, in epoch seconds
+     * @param epoch     the token epoch of the user
+     * @param userId    the identifier of the user, or null
+     * @param role      the role of the user, or null
+     */
+    public VerifiedToken(String token, String subject, long issuedAt, long expiresAt, long epoch, Integer userId, String role) {
+        this(token, subject, issuedAt, expiresAt, epoch, userId, role, null);
+    }
+
+    /**
+     * Creates a verified token without principal claims.
+     *
+     * @param token     the raw, compact JWT string
+     * @param subject   the subject (user email)
+     * @param issuedAt  the issued-at time, in epoch seconds
+     * @param expiresAt the expiration time, in epoch seconds
+     * @param epoch     the token epoch of the user
+     */
+    public VerifiedToken(String token, String subject, long issuedAt, long expiresAt, long epoch) {
+        this(token, subject, issuedAt, expiresAt, epoch, null, null, null);
+    }
+
+    /**
+     * Returns the number of seconds left until the token expires.
+     *
+     * @return the remaining lifetime in seconds, never negative
+     */
+    public int getSecondsUntilExpiration() {
+        long remaining = expiresAt - System.currentTimeMillis() / 1000;
+
+        return (int) Math.max(0, remaining);
+    }
+
+    /**
+     * Checks whether the token carries the claims needed to rebuild the principal without a lookup.
+     *
+     * @return true if both the user identifier and the role are present
+     */
+    public boolean hasPrincipalClaims() {
+        return userId != null && role != null;
+    }
+
+    /**
+     * Checks whether the token belongs to the given username.
+     *
+     * @param username the username to compare with
+     * @return true if the subject matches the username, false otherwise
+     */
+    public boolean isIssuedTo(String username) {
+        return subject != null && subject.equals(username);
+    }
+}
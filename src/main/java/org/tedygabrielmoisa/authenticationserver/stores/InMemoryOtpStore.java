@@ -0,0 +1,182 @@
+package org.tedygabrielmoisa.authenticationserver.stores;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * In-process {@link OtpStore} keyed by user, for deployments pinning the login of a user to one node or accepting to
+ * lose pending codes on restart.
+ * <p>
+ * Expiry is driven by a hashed timing wheel of one-second slots spanning more than the OTP longevity: saving a code
+ * files its user in the slot of its expiration second, and each tick only drains the slots it passed, so cleanup costs
+ * O(1) per code whatever the number of pending codes. A user filed again keeps a stale entry in its old slot, which is
+ * skipped when drained. The number of pending codes is bounded, new codes being refused when the store is full.
+ */
+@Component
+@ConditionalOnProperty(name = "application.security.otp-store.type", havingValue = "memory")
+public class InMemoryOtpStore implements OtpStore {
+
+    private final Map<Integer, StoredOtp> otps = new ConcurrentHashMap<>();
+    private final Queue<Integer>[] wheel;
+    private final int maxSize;
+
+    private long cursor;
+
+    /**
+     * Creates the store.
+     *
+     * @param longevity     the OTP longevity in seconds, which the wheel must span
+     * @param maxSize       the maximum number of pending codes
+     * @param meterRegistry the registry exposing the number of pending codes
+     */
+    @SuppressWarnings("unchecked")
+    public InMemoryOtpStore(
+            @Value("${application.security.otp.longevity}") long longevity,
+            @Value("${application.security.otp-store.max-size}") int maxSize,
+            MeterRegistry meterRegistry) {
+        int slots = Integer.highestOneBit((int) Math.max(1, longevity + 1)) << 1;
+
+        this.wheel = new Queue[slots];
+        for (int i = 0; i < slots; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+
+        this.maxSize = maxSize;
+        this.cursor = System.currentTimeMillis() / 1000;
+
+        Gauge.builder("auth.otp.store.size", otps, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws StoreFullException if the store is full and the user has no pending code to replace
+     */
+    @Override
+    public void save(StoredOtp otp) {
+        if (otps.size() >= maxSize && !otps.containsKey(otp.getUserId())) {
+            throw new StoreFullException("Too many pending OTPs");
+        }
+
+        otps.put(otp.getUserId(), otp);
+        wheel[slot(otp.getExpiresAt())].add(otp.getUserId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<StoredOtp> find(Integer userId) {
+        return Optional.ofNullable(otps.get(userId));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean takeAttempt(Integer userId, int maxAttempts) {
+        boolean[] taken = new boolean[1];
+
+        otps.computeIfPresent(userId, (id, otp) -> {
+            taken[0] = otp.getAttempts() < maxAttempts;
+            return taken[0] ? otp.withAttempt() : otp;
+        });
+
+        return taken[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     * The entry left in the wheel is skipped when its slot is drained.
+     */
+    @Override
+    public void delete(Integer userId) {
+        otps.remove(userId);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Advances the wheel up to now; the limit is not applied since each tick only drains the codes due.
+     */
+    @Override
+    public int purge(long now, int limit) {
+        return advance(now);
+    }
+
+    /**
+     * Advances the wheel every second.
+     */
+    @Scheduled(fixedRate = 1000)
+    public void tick() {
+        advance(System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Drains the slots of every second from the cursor to now, at most one full turn.
+     *
+     * @param now the current time in epoch seconds
+     * @return the number of removed codes
+     */
+    private synchronized int advance(long now) {
+        int removed = 0;
+        long from = Math.max(cursor, now - wheel.length + 1);
+
+        for (long second = from; second <= now; second++) {
+            removed += drain(slot(second), now);
+        }
+
+        cursor = now + 1;
+
+        return removed;
+    }
+
+    /**
+     * Removes the expired codes filed in a slot. Codes filed in the slot a full turn ahead are filed again.
+     *
+     * @param slot the slot to drain
+     * @param now  the current time in epoch seconds
+     * @return the number of removed codes
+     */
+    private int drain(int slot, long now) {
+        Queue<Integer> queue = wheel[slot];
+        int removed = 0;
+
+        for (int pending = queue.size(); pending > 0; pending--) {
+            Integer userId = queue.poll();
+
+            if (userId == null) {
+                break;
+            }
+
+            StoredOtp otp = otps.get(userId);
+
+            if (otp == null || slot(otp.getExpiresAt()) != slot) {
+                continue;
+            }
+
+            if (!otp.isValid(now)) {
+                if (otps.remove(userId, otp)) {
+                    removed++;
+                }
+            } else {
+                queue.add(userId);
+            }
+        }
+
+        return removed;
+    }
+
+    private int slot(long second) {
+        return (int) (second & (wheel.length - 1));
+    }
+}
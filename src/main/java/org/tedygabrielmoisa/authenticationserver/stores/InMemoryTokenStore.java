@@ -0,0 +1,310 @@
+package org.tedygabrielmoisa.authenticationserver.stores;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.tedygabrielmoisa.authenticationserver.services.TokenDigests;
+import org.tedygabrielmoisa.authenticationserver.services.VerifiedToken;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * In-process {@link TokenStore} for single-node deployments and performance tests.
+ * <p>
+ * Tokens are spread over lock-striped shards by digest, so requests for different tokens rarely contend.
+ * Each shard indexes its tokens by user and files them in time-ordered expiry buckets, so purging only walks the
+ * buckets that have fully expired. Revoked tokens that were not rotated are dropped right away, rotated ones are
+ * kept until they expire so that their reuse can be detected. Nothing survives a restart.
+ */
+@Component
+@ConditionalOnProperty(name = "application.security.token-store.type", havingValue = "memory")
+public class InMemoryTokenStore implements TokenStore {
+
+    private static final long BUCKET_SECONDS = 60;
+
+    private final Shard[] shards;
+
+    /**
+     * Creates the store.
+     *
+     * @param shardCount    the number of shards, rounded up to a power of two
+     * @param meterRegistry the registry exposing the number of stored tokens
+     */
+    public InMemoryTokenStore(
+            @Value("${application.security.token-store.shards}") int shardCount,
+            MeterRegistry meterRegistry) {
+        int size = Integer.highestOneBit(Math.max(1, shardCount - 1)) << 1;
+
+        shards = new Shard[size];
+        for (int i = 0; i < size; i++) {
+            shards[i] = new Shard();
+        }
+
+        Gauge.builder("auth.token.store.size", this, InMemoryTokenStore::size).register(meterRegistry);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void save(StoredToken token) {
+        ByteBuffer key = ByteBuffer.wrap(token.getTokenHash());
+
+        withShard(key, shard -> {
+            shard.put(key, token);
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<StoredToken> find(String token) {
+        ByteBuffer key = keyOf(token);
+
+        return Optional.ofNullable(withShard(key, shard -> shard.tokens.get(key)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int revokeByUser(Integer userId) {
+        int revoked = 0;
+
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                Set<ByteBuffer> keys = shard.byUser.get(userId);
+
+                if (keys == null) {
+                    continue;
+                }
+
+                for (ByteBuffer key : List.copyOf(keys)) {
+                    if (shard.revoke(key, false)) {
+                        revoked++;
+                    }
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+
+        return revoked;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean revoke(String token) {
+        ByteBuffer key = keyOf(token);
+
+        return withShard(key, shard -> shard.revoke(key, false));
+    }
+
+    /**
+     * {@inheritDoc}
+     * The presented token is marked under its shard lock first, so the successor can be saved in its own shard
+     * without holding two locks.
+     */
+    @Override
+    public boolean rotate(String token, VerifiedToken successor) {
+        ByteBuffer key = keyOf(token);
+        long now = System.currentTimeMillis() / 1000;
+
+        StoredToken rotated = withShard(key, shard -> {
+            StoredToken current = shard.tokens.get(key);
+
+            if (current == null || !current.isValid(now)) {
+                return null;
+            }
+
+            shard.revoke(key, true);
+            return current;
+        });
+
+        if (rotated == null) {
+            return false;
+        }
+
+        save(StoredToken.successor(successor, rotated.getUserId(), rotated.getFamilyId()));
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Families are only revoked on token reuse, so this walks the shards rather than maintaining a family index.
+     */
+    @Override
+    public int revokeFamily(String familyId) {
+        int revoked = 0;
+
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                List<ByteBuffer> keys = new ArrayList<>();
+
+                shard.tokens.forEach((key, token) -> {
+                    if (familyId.equals(token.getFamilyId()) && !token.isRevoked()) {
+                        keys.add(key);
+                    }
+                });
+
+                for (ByteBuffer key : keys) {
+                    if (shard.revoke(key, false)) {
+                        revoked++;
+                    }
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+
+        return revoked;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Revoked tokens are already gone, so only the fully expired buckets of each shard are walked.
+     */
+    @Override
+    public int purge(long now, int limit) {
+        int purged = 0;
+
+        for (Shard shard : shards) {
+            if (purged >= limit) {
+                break;
+            }
+
+            shard.lock.lock();
+            try {
+                purged += shard.purge(now, limit - purged);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+
+        return purged;
+    }
+
+    /**
+     * Returns the number of stored tokens.
+     *
+     * @return the number of tokens over all shards
+     */
+    public int size() {
+        int size = 0;
+
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                size += shard.tokens.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+
+        return size;
+    }
+
+    private static ByteBuffer keyOf(String token) {
+        return ByteBuffer.wrap(TokenDigests.sha256(token));
+    }
+
+    private <T> T withShard(ByteBuffer key, Function<Shard, T> action) {
+        Shard shard = shards[key.hashCode() & (shards.length - 1)];
+
+        shard.lock.lock();
+        try {
+            return action.apply(shard);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * One lock stripe of the store. Every method must be called with the lock held.
+     */
+    private static final class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<ByteBuffer, StoredToken> tokens = new HashMap<>();
+        private final Map<Integer, Set<ByteBuffer>> byUser = new HashMap<>();
+        private final TreeMap<Long, List<ByteBuffer>> expiryBuckets = new TreeMap<>();
+
+        private void put(ByteBuffer key, StoredToken token) {
+            if (tokens.put(key, token) == null) {
+                byUser.computeIfAbsent(token.getUserId(), id -> new HashSet<>()).add(key);
+                expiryBuckets.computeIfAbsent(token.getExpiresAt() / BUCKET_SECONDS, bucket -> new ArrayList<>()).add(key);
+            }
+        }
+
+        /**
+         * Revokes a token: a rotated one is kept until it expires, any other is dropped.
+         *
+         * @return true if the token was not revoked before
+         */
+        private boolean revoke(ByteBuffer key, boolean asRotated) {
+            StoredToken token = tokens.get(key);
+
+            if (token == null || token.isRevoked()) {
+                return false;
+            }
+
+            if (asRotated) {
+                tokens.put(key, token.rotate(System.currentTimeMillis() / 1000));
+            } else {
+                remove(key, token);
+            }
+
+            return true;
+        }
+
+        private void remove(ByteBuffer key, StoredToken token) {
+            tokens.remove(key);
+
+            Set<ByteBuffer> keys = byUser.get(token.getUserId());
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                byUser.remove(token.getUserId());
+            }
+        }
+
+        /**
+         * Drops at most {@code limit} tokens of the buckets that ended before now, leaving the rest of a partially
+         * purged bucket for the next call. Keys of tokens already dropped are skipped.
+         *
+         * @return the number of dropped tokens
+         */
+        private int purge(long now, int limit) {
+            int purged = 0;
+
+            while (purged < limit && !expiryBuckets.isEmpty()
+                    && (expiryBuckets.firstKey() + 1) * BUCKET_SECONDS <= now) {
+                List<ByteBuffer> keys = expiryBuckets.firstEntry().getValue();
+
+                while (purged < limit && !keys.isEmpty()) {
+                    ByteBuffer key = keys.remove(keys.size() - 1);
+                    StoredToken token = tokens.get(key);
+
+                    if (token != null && token.getExpiresAt() <= now) {
+                        remove(key, token);
+                        purged++;
+                    }
+                }
+
+                if (keys.isEmpty()) {
+                    expiryBuckets.pollFirstEntry();
+                }
+            }
+
+            return purged;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.tedygabrielmoisa.authenticationserver.stores;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.tedygabrielmoisa.authenticationserver.entities.Otp;
+import org.tedygabrielmoisa.authenticationserver.repositories.OtpRepository;
+import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * {@link OtpStore} backed by the {@code otps} table.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "application.security.otp-store.type", havingValue = "jpa", matchIfMissing = true)
+public class JpaOtpStore implements OtpStore {
+
+    private final OtpRepository otpRepository;
+    private final UserRepository userRepository;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Transactional
+    public void save(StoredOtp otp) {
+        Otp row = otpRepository.findOtpByUserId(otp.getUserId())
+                .orElseGet(() -> Otp.builder().user(userRepository.getReferenceById(otp.getUserId())).build());
+
+        row.setOtpHash(otp.getOtpHash());
+        row.setSalt(otp.getSalt());
+        row.setAttempts(otp.getAttempts());
+        row.setCreatedAt(LocalDateTime.now());
+        row.setExpiresAt(toLocalDateTime(otp.getExpiresAt()));
+
+        otpRepository.save(row);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Rows written before codes were hashed with a key have no hash and are ignored.
+     */
+    @Override
+    public Optional<StoredOtp> find(Integer userId) {
+        return otpRepository.findById(userId)
+                .filter(otp -> otp.getOtpHash() != null)
+                .map(otp -> new StoredOtp(
+                        userId,
+                        otp.getOtpHash(),
+                        otp.getSalt(),
+                        otp.getExpiresAt().atZone(ZoneId.systemDefault()).toEpochSecond(),
+                        otp.getAttempts()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Transactional
+    public boolean takeAttempt(Integer userId, int maxAttempts) {
+        return otpRepository.takeAttempt(userId, maxAttempts) > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Transactional
+    public void delete(Integer userId) {
+        otpRepository.deleteAllByIdInBatch(List.of(userId));
+    }
+
+    /**
+     * {@inheritDoc}
+     * Expired rows are selected through the index on the expiration time and deleted by primary key.
+     */
+    @Override
+    public int purge(long now, int limit) {
+        List<Integer> ids = otpRepository.findExpiredIds(toLocalDateTime(now), PageRequest.of(0, limit));
+
+        if (!ids.isEmpty()) {
+            otpRepository.deleteAllByIdInBatch(ids);
+        }
+
+        return ids.size();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochSeconds) {
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(epochSeconds), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,172 @@
+package org.tedygabrielmoisa.authenticationserver.stores;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.tedygabrielmoisa.authenticationserver.entities.Token;
+import org.tedygabrielmoisa.authenticationserver.repositories.TokenRepository;
+import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
+import org.tedygabrielmoisa.authenticationserver.services.TokenDigests;
+import org.tedygabrielmoisa.authenticationserver.services.VerifiedToken;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * {@link TokenStore} backed by the {@code token} table.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "application.security.token-store.type", havingValue = "jpa", matchIfMissing = true)
+public class JpaTokenStore implements TokenStore {
+
+    private final TokenRepository tokenRepository;
+    private final UserRepository userRepository;
+
+    private volatile boolean legacyTokensMigrated;
+
+    /**
+     * Stops falling back to the legacy token string once the startup migration converted every row, so that unknown
+     * tokens cost a single lookup.
+     */
+    public void markLegacyTokensMigrated() {
+        legacyTokensMigrated = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Transactional
+    public void save(StoredToken token) {
+        tokenRepository.save(Token.builder()
+                .user(userRepository.getReferenceById(token.getUserId()))
+                .tokenHash(token.getTokenHash())
+                .expiresAt(toLocalDateTime(token.getExpiresAt()))
+                .familyId(token.getFamilyId())
+                .expired(token.isRevoked())
+                .revoked(token.isRevoked())
+                .rotated(token.isRotated())
+                .build());
+    }
+
+    /**
+     * {@inheritDoc}
+     * Falls back to the legacy token string for rows the startup migration has not converted yet.
+     */
+    @Override
+    public Optional<StoredToken> find(String token) {
+        Optional<Token> found = tokenRepository.findByTokenHash(TokenDigests.sha256(token));
+
+        if (found.isEmpty() && !legacyTokensMigrated) {
+            found = tokenRepository.findByToken(token);
+        }
+
+        return found.map(JpaTokenStore::toStoredToken);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Transactional
+    public int revokeByUser(Integer userId) {
+        return tokenRepository.revokeAllByUserId(userId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Transactional
+    public boolean revoke(String token) {
+        return tokenRepository.revokeByTokenHash(TokenDigests.sha256(token)) > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Costs one conditional UPDATE and one INSERT ... SELECT copying the user and family of the rotated row.
+     */
+    @Override
+    @Transactional
+    public boolean rotate(String token, VerifiedToken successor) {
+        byte[] tokenHash = TokenDigests.sha256(token);
+
+        if (tokenRepository.rotate(tokenHash, toLocalDateTime(System.currentTimeMillis() / 1000)) == 0) {
+            return false;
+        }
+
+        tokenRepository.insertSuccessor(
+                tokenHash,
+                TokenDigests.sha256(successor.getToken()),
+                toLocalDateTime(successor.getExpiresAt()),
+                UUID.randomUUID().toString());
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Transactional
+    public int revokeFamily(String familyId) {
+        return tokenRepository.revokeFamily(familyId);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Expired rows are selected through the index on the expiration time first, then revoked rows through the
+     * index on the revoked flag, and all of them are deleted by primary key.
+     */
+    @Override
+    @Transactional
+    public int purge(long now, int limit) {
+        List<Integer> ids = new ArrayList<>(tokenRepository.findExpiredIds(toLocalDateTime(now), PageRequest.of(0, limit)));
+
+        if (ids.size() < limit) {
+            ids.addAll(tokenRepository.findRevokedIds(PageRequest.of(0, limit - ids.size())));
+        }
+
+        if (!ids.isEmpty()) {
+            tokenRepository.deleteAllByIdInBatch(ids);
+        }
+
+        return ids.size();
+    }
+
+    /**
+     * Converts a token row to its stored form. Legacy rows without an expiration time never expire here,
+     * their JWT expiration is still checked on verification.
+     *
+     * @param token the token row
+     * @return the stored token
+     */
+    private static StoredToken toStoredToken(Token token) {
+        return new StoredToken(
+                token.getTokenHash(),
+                token.getUser().getId(),
+                token.getFamilyId(),
+                token.getExpiresAt() != null ? token.getExpiresAt().atZone(ZoneId.systemDefault()).toEpochSecond() : Long.MAX_VALUE,
+                token.isRevoked() || token.isExpired(),
+                token.isRotated(),
+                token.getRotatedAt() != null ? token.getRotatedAt().atZone(ZoneId.systemDefault()).toEpochSecond() : 0);
+    }
+
+    /**
+     * Converts epoch seconds to the local date time stored in the database.
+     *
+     * @param epochSeconds the time in epoch seconds
+     * @return the local date time
+     */
+    private static LocalDateTime toLocalDateTime(long epochSeconds) {
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(epochSeconds), ZoneId.systemDefault());
+    }
+}
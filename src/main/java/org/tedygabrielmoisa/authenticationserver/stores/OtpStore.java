@@ -0,0 +1,54 @@
+package org.tedygabrielmoisa.authenticationserver.stores;
+
+import java.util.Optional;
+
+/**
+ * Persistence of the emailed OTPs, at most one per user.
+ * <p>
+ * The implementation is selected with {@code application.security.otp-store.type}: {@code jpa} (default) keeps them
+ * in the {@code otps} table, {@code memory} in an in-process store expiring them with a timing wheel, suited to
+ * deployments pinning the login of a user to one node or accepting to lose pending codes on restart.
+ */
+public interface OtpStore {
+
+    /**
+     * Saves the OTP of a user, replacing any previous one.
+     *
+     * @param otp the OTP to save
+     */
+    void save(StoredOtp otp);
+
+    /**
+     * Finds the OTP of a user.
+     *
+     * @param userId the identifier of the user
+     * @return the stored OTP, or an empty Optional if none
+     */
+    Optional<StoredOtp> find(Integer userId);
+
+    /**
+     * Takes one verification attempt of the OTP of a user, only if it has attempts left.
+     * Of concurrent attempts, at most the remaining number succeed.
+     *
+     * @param userId      the identifier of the user
+     * @param maxAttempts the number of attempts allowed per code
+     * @return true if an attempt was taken
+     */
+    boolean takeAttempt(Integer userId, int maxAttempts);
+
+    /**
+     * Deletes the OTP of a user.
+     *
+     * @param userId the identifier of the user
+     */
+    void delete(Integer userId);
+
+    /**
+     * Deletes one batch of expired OTPs.
+     *
+     * @param now   the current time in epoch seconds
+     * @param limit the maximum number of OTPs to delete
+     * @return the number of deleted OTPs
+     */
+    int purge(long now, int limit);
+}
@@ -0,0 +1,16 @@
+package org.tedygabrielmoisa.authenticationserver.stores;
+
+/**
+ * Thrown when a bounded in-memory store has no room left for a new entry.
+ */
+public class StoreFullException extends RuntimeException {
+
+    /**
+     * Creates the exception.
+     *
+     * @param message the detail message
+     */
+    public StoreFullException(String message) {
+        super(message);
+    }
+}
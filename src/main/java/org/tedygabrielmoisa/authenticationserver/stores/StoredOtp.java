@@ -0,0 +1,56 @@
+package org.tedygabrielmoisa.authenticationserver.stores;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * An emailed OTP as kept by an {@link OtpStore}: the keyed hash of the code and the state needed to verify it.
+ */
+@Getter
+@AllArgsConstructor
+public final class StoredOtp {
+
+    /**
+     * The identifier of the user the code was sent to.
+     */
+    private final Integer userId;
+
+    /**
+     * The keyed hash of the salt and the code.
+     */
+    private final byte[] otpHash;
+
+    /**
+     * The random salt of the code.
+     */
+    private final byte[] salt;
+
+    /**
+     * The expiration time, in epoch seconds.
+     */
+    private final long expiresAt;
+
+    /**
+     * The number of verifications already attempted with the code.
+     */
+    private final int attempts;
+
+    /**
+     * Returns a copy of this OTP with one more attempt.
+     *
+     * @return the updated OTP
+     */
+    public StoredOtp withAttempt() {
+        return new StoredOtp(userId, otpHash, salt, expiresAt, attempts + 1);
+    }
+
+    /**
+     * Checks whether the code can still be verified.
+     *
+     * @param now the current time in epoch seconds
+     * @return true if the code has not expired
+     */
+    public boolean isValid(long now) {
+        return expiresAt > now;
+    }
+}
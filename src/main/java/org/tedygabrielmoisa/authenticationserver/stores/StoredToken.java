@@ -0,0 +1,106 @@
+package org.tedygabrielmoisa.authenticationserver.stores;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.tedygabrielmoisa.authenticationserver.services.TokenDigests;
+import org.tedygabrielmoisa.authenticationserver.services.VerifiedToken;
+
+import java.util.UUID;
+
+/**
+ * A refresh token as kept by a {@link TokenStore}: its digest and the state needed to validate and rotate it.
+ */
+@Getter
+@AllArgsConstructor
+public final class StoredToken {
+
+    /**
+     * The SHA-256 digest of the compact JWT.
+     */
+    private final byte[] tokenHash;
+
+    /**
+     * The identifier of the user the token belongs to.
+     */
+    private final Integer userId;
+
+    /**
+     * The identifier shared by a login's refresh token and every token it was rotated into.
+     */
+    private final String familyId;
+
+    /**
+     * The expiration time, in epoch seconds.
+     */
+    private final long expiresAt;
+
+    /**
+     * Flag indicating whether the token has been revoked.
+     */
+    private final boolean revoked;
+
+    /**
+     * Flag indicating whether the token was exchanged for a successor.
+     */
+    private final boolean rotated;
+
+    /**
+     * The time the token was exchanged for a successor, in epoch seconds, or 0 if it was not or the time is unknown.
+     */
+    private final long rotatedAt;
+
+    /**
+     * Creates the stored form of a refresh token handed out on login, starting a new family.
+     *
+     * @param token  the verified refresh token
+     * @param userId the identifier of the user
+     * @return the stored token
+     */
+    public static StoredToken issue(VerifiedToken token, Integer userId) {
+        return successor(token, userId, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Creates the stored form of a refresh token rotated from a token of the given family.
+     *
+     * @param token    the verified refresh token
+     * @param userId   the identifier of the user
+     * @param familyId the family of the rotated token
+     * @return the stored token
+     */
+    public static StoredToken successor(VerifiedToken token, Integer userId, String familyId) {
+        return new StoredToken(TokenDigests.sha256(token.getToken()), userId, familyId, token.getExpiresAt(), false, false, 0);
+    }
+
+    /**
+     * Returns a copy of this token revoked because it was exchanged for a successor.
+     *
+     * @param now the current time in epoch seconds
+     * @return the rotated token
+     */
+    public StoredToken rotate(long now) {
+        return new StoredToken(tokenHash, userId, familyId, expiresAt, true, true, now);
+    }
+
+    /**
+     * Checks whether the token was exchanged for a successor less than the grace period ago, as when a client retries
+     * a refresh whose response it lost.
+     *
+     * @param now         the current time in epoch seconds
+     * @param gracePeriod the grace period in seconds
+     * @return true if the token was rotated within the grace period
+     */
+    public boolean isRecentlyRotated(long now, long gracePeriod) {
+        return rotated && rotatedAt > 0 && now - rotatedAt <= gracePeriod;
+    }
+
+    /**
+     * Checks whether the token can still be exchanged.
+     *
+     * @param now the current time in epoch seconds
+     * @return true if the token is neither revoked nor expired
+     */
+    public boolean isValid(long now) {
+        return !revoked && expiresAt > now;
+    }
+}
@@ -0,0 +1,75 @@
+package org.tedygabrielmoisa.authenticationserver.stores;
+
+import org.tedygabrielmoisa.authenticationserver.services.VerifiedToken;
+
+import java.util.Optional;
+
+/**
+ * Persistence of the refresh tokens.
+ * <p>
+ * Tokens are looked up by the compact JWT presented by the client and kept as {@link StoredToken} digests.
+ * The implementation is selected with {@code application.security.token-store.type}: {@code jpa} (default) keeps
+ * them in the database, {@code memory} in a sharded in-process store suited to single-node deployments and
+ * performance tests.
+ */
+public interface TokenStore {
+
+    /**
+     * Saves a new refresh token.
+     *
+     * @param token the token to save
+     */
+    void save(StoredToken token);
+
+    /**
+     * Finds a refresh token.
+     *
+     * @param token the compact JWT
+     * @return the stored token, or an empty Optional if unknown
+     */
+    Optional<StoredToken> find(String token);
+
+    /**
+     * Revokes every token of the user that is not revoked yet.
+     *
+     * @param userId the identifier of the user
+     * @return the number of revoked tokens
+     */
+    int revokeByUser(Integer userId);
+
+    /**
+     * Revokes a single token.
+     *
+     * @param token the compact JWT
+     * @return true if the token was valid and is now revoked
+     */
+    boolean revoke(String token);
+
+    /**
+     * Marks a valid token as rotated and stores its successor in the same family, for the same user.
+     * Of concurrent rotations of the same token, exactly one succeeds.
+     *
+     * @param token     the compact JWT presented by the client
+     * @param successor the newly minted refresh token
+     * @return true if the token was rotated, false if it is unknown or no longer valid
+     */
+    boolean rotate(String token, VerifiedToken successor);
+
+    /**
+     * Revokes every token of a family that is not revoked yet.
+     *
+     * @param familyId the identifier of the family
+     * @return the number of revoked tokens
+     */
+    int revokeFamily(String familyId);
+
+    /**
+     * Deletes one batch of dead tokens: expired ones, and revoked ones that were not rotated.
+     * Rotated tokens are kept until they expire so that their reuse can be detected.
+     *
+     * @param now   the current time in epoch seconds
+     * @param limit the maximum number of tokens to delete
+     * @return the number of deleted tokens
+     */
+    int purge(long now, int limit);
+}
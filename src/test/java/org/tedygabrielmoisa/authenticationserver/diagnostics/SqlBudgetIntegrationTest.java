@@ -0,0 +1,315 @@
+package org.tedygabrielmoisa.authenticationserver.diagnostics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultMatcher;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.web.servlet.HandlerMapping;
+import org.tedygabrielmoisa.authenticationserver.entities.AuthPrincipal;
+import org.tedygabrielmoisa.authenticationserver.entities.EmailOutbox;
+import org.tedygabrielmoisa.authenticationserver.entities.User;
+import org.tedygabrielmoisa.authenticationserver.enums.Role;
+import org.tedygabrielmoisa.authenticationserver.repositories.EmailOutboxRepository;
+import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
+import org.tedygabrielmoisa.authenticationserver.services.AuthenticationService;
+import org.tedygabrielmoisa.authenticationserver.services.EmailService;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Drives every endpoint with a declared {@link SqlBudget} against an embedded database, failing when a request issues
+ * more statements, entity loads or flushes than its budget allows, the work of the security filters included.
+ * <p>
+ * The counts come from the {@link SqlRecorder}, which hooks the Hibernate statement inspector and the load and flush
+ * events of the request thread only, so the scheduled jobs sharing the session factory never skew them. As in the
+ * {@link SqlBudgetFilter}, the first recording of an endpoint within budget is its baseline, and a request over budget
+ * fails with the statements added to and missing from it.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class SqlBudgetIntegrationTest {
+
+    private static final String PASSWORD = "budget-password";
+    private static final Pattern OTP = Pattern.compile("One-Time-Password: (\\d{4})");
+    private static final String BASE32 = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+    private static final long TOTP_STEP_SECONDS = 30;
+    private static final Set<String> EXERCISED = ConcurrentHashMap.newKeySet();
+    private static final Map<String, List<String>> BASELINES = new ConcurrentHashMap<>();
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EmailOutboxRepository emailOutboxRepository;
+
+    @Autowired
+    private EmailService emailService;
+
+    @Autowired
+    private AuthenticationService authenticationService;
+
+    /**
+     * Registers a user, logs in with the password and the emailed code, then checks, refreshes and ends the session.
+     */
+    @Test
+    void sessionEndpointsStayWithinBudget() throws Exception {
+        String email = "budget.user@example.com";
+
+        register(email);
+        Session session = login(email);
+
+        within(get("/auth/checkAuthenticated").header(HttpHeaders.AUTHORIZATION, session.bearer()), status().isOk());
+
+        MvcResult refreshed = within(post("/auth/refresh").cookie(session.refreshCookie()), status().isOk());
+        String bearer = "Bearer " + objectMapper.readTree(refreshed.getResponse().getContentAsString()).get("token").asText();
+
+        within(get("/auth/logout").header(HttpHeaders.AUTHORIZATION, bearer), status().isAccepted());
+    }
+
+    /**
+     * Enrolls and confirms an authenticator app, replaces it, then removes it. Each code is taken from a later time
+     * step than the previous one, since a step is only accepted once.
+     */
+    @Test
+    void totpEndpointsStayWithinBudget() throws Exception {
+        String email = "budget.totp@example.com";
+
+        register(email);
+        String bearer = login(email).bearer();
+        long step = System.currentTimeMillis() / 1000 / TOTP_STEP_SECONDS;
+
+        String secret = enrollTotp(bearer, Map.of("password", PASSWORD));
+        within(post("/auth/totp/confirm")
+                .header(HttpHeaders.AUTHORIZATION, bearer)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("code", totp(secret, step - 1)))), status().isNoContent());
+
+        String replaced = enrollTotp(bearer, Map.of("password", PASSWORD, "code", totp(secret, step)));
+        assertThat(replaced).isNotEqualTo(secret);
+
+        within(delete("/auth/totp")
+                .header(HttpHeaders.AUTHORIZATION, bearer)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("password", PASSWORD, "code", totp(secret, step + 1)))),
+                status().isNoContent());
+    }
+
+    /**
+     * Creates, lists, updates and deletes a Pokemon, runs the retention job, changes the role of a user and reads the
+     * public keys as an administrator.
+     */
+    @Test
+    void adminEndpointsStayWithinBudget() throws Exception {
+        String email = "budget.admin@example.com";
+        String moderatorEmail = "budget.moderator@example.com";
+
+        register(email);
+        register(moderatorEmail);
+
+        User admin = userRepository.findUserByEmail(email).orElseThrow();
+        authenticationService.changeRole(AuthPrincipal.of(admin), Role.ADMIN);
+
+        String bearer = loginAsAdmin(email).bearer();
+
+        MvcResult created = within(post("/pokemons/create")
+                .header(HttpHeaders.AUTHORIZATION, bearer)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"Bulbasaur\",\"type1\":\"Grass\"}"), status().isOk());
+        int id = objectMapper.readTree(created.getResponse().getContentAsString()).get("id").asInt();
+
+        within(get("/pokemons").header(HttpHeaders.AUTHORIZATION, bearer), status().isOk());
+        within(put("/pokemons/update/" + id)
+                .header(HttpHeaders.AUTHORIZATION, bearer)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"Ivysaur\",\"type1\":\"Grass\"}"), status().isOk());
+        within(delete("/pokemons/delete/" + id).header(HttpHeaders.AUTHORIZATION, bearer), status().isNoContent());
+
+        within(post("/admin/retention/run").header(HttpHeaders.AUTHORIZATION, bearer), status().isOk());
+
+        Integer moderatorId = userRepository.findUserByEmail(moderatorEmail).orElseThrow().getId();
+        within(put("/admin/users/" + moderatorId + "/role")
+                .header(HttpHeaders.AUTHORIZATION, bearer)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"role\":\"MODERATOR\"}"), status().isNoContent());
+        assertThat(userRepository.findUserByEmail(moderatorEmail).orElseThrow().getRole()).isEqualTo(Role.MODERATOR);
+        within(get("/.well-known/jwks.json"), status().isOk());
+    }
+
+    /**
+     * Fails if a declared budget was not checked, so that a new budget cannot go untested.
+     */
+    @AfterAll
+    static void everyDeclaredBudgetIsExercised() {
+        assertThat(EXERCISED).containsExactlyInAnyOrderElementsOf(SqlBudget.DECLARED.keySet());
+    }
+
+    private void register(String email) throws Exception {
+        String body = objectMapper.writeValueAsString(Map.of(
+                "firstName", "Budget",
+                "lastName", "Test",
+                "email", email,
+                "password", PASSWORD));
+
+        within(post("/auth/register").contentType(MediaType.APPLICATION_JSON).content(body), status().isCreated());
+    }
+
+    private Session login(String email) throws Exception {
+        within(get("/auth/login").param("email", email).param("password", PASSWORD), status().isPartialContent());
+
+        MvcResult result = within(get("/auth/login").param("email", email).param("otp", otpSentTo(email)), status().isOk());
+        String accessToken = objectMapper.readTree(result.getResponse().getContentAsString()).get("token").asText();
+
+        return session(result);
+    }
+
+    /**
+     * Logs in as an administrator, who is fully authenticated by the password alone.
+     */
+    private Session loginAsAdmin(String email) throws Exception {
+        return session(within(get("/auth/login").param("email", email).param("password", PASSWORD), status().isOk()));
+    }
+
+    private Session session(MvcResult result) throws Exception {
+        String accessToken = objectMapper.readTree(result.getResponse().getContentAsString()).get("token").asText();
+
+        return new Session(accessToken, result.getResponse().getCookie("token"));
+    }
+
+    /**
+     * Starts the enrollment of an authenticator app.
+     *
+     * @return the base32 secret of the pending app
+     */
+    private String enrollTotp(String bearer, Map<String, String> proofs) throws Exception {
+        MvcResult enrolled = within(post("/auth/totp")
+                .header(HttpHeaders.AUTHORIZATION, bearer)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(proofs)), status().isOk());
+
+        return objectMapper.readTree(enrolled.getResponse().getContentAsString()).get("secret").asText();
+    }
+
+    /**
+     * Computes the RFC 6238 code of a base32 secret for a time step, as an authenticator app would.
+     */
+    private static String totp(String secret, long step) throws Exception {
+        ByteArrayOutputStream key = new ByteArrayOutputStream();
+        int buffer = 0;
+        int bits = 0;
+
+        for (char c : secret.toCharArray()) {
+            buffer = (buffer << 5) | BASE32.indexOf(c);
+            bits += 5;
+
+            if (bits >= 8) {
+                key.write(buffer >>> (bits - 8));
+                bits -= 8;
+            }
+        }
+
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(key.toByteArray(), "HmacSHA1"));
+        byte[] hash = mac.doFinal(ByteBuffer.allocate(Long.BYTES).putLong(step).array());
+        int offset = hash[hash.length - 1] & 0x0f;
+
+        return String.format("%06d", (ByteBuffer.wrap(hash, offset, Integer.BYTES).getInt() & 0x7fffffff) % 1_000_000);
+    }
+
+    /**
+     * Reads the code from the last email queued for the user.
+     */
+    private String otpSentTo(String email) {
+        EmailOutbox queued = emailOutboxRepository.findAll().stream()
+                .filter(outbox -> outbox.getRecipient().equals(email))
+                .max(Comparator.comparing(EmailOutbox::getId))
+                .orElseThrow();
+        Matcher code = OTP.matcher(emailService.openBody(queued));
+
+        assertThat(code.find()).as("code in the email to %s", email).isTrue();
+
+        return code.group(1);
+    }
+
+    /**
+     * Performs a request and checks its recording against the budget of its endpoint. The first recording within
+     * budget becomes the baseline of the endpoint, which a recording over budget is diffed against.
+     *
+     * @param request        the request
+     * @param expectedStatus the status the request must be answered with
+     * @return the result of the request
+     */
+    private MvcResult within(MockHttpServletRequestBuilder request, ResultMatcher expectedStatus) throws Exception {
+        MvcResult result = mockMvc.perform(request).andExpect(expectedStatus).andReturn();
+
+        String endpoint = result.getRequest().getMethod() + " "
+                + result.getRequest().getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        SqlRecording recording = (SqlRecording) result.getRequest().getAttribute(SqlBudgetFilter.RECORDING_ATTRIBUTE);
+        SqlBudget budget = SqlBudget.DECLARED.get(endpoint);
+
+        assertThat(recording).as("SQL recording of %s", endpoint).isNotNull();
+        assertThat(budget).as("SQL budget of %s", endpoint).isNotNull();
+        assertThat(budget.allows(recording))
+                .as("%s issued %d statements, %d loads and %d flushes, over its budget %s, %s:%s",
+                        endpoint,
+                        recording.getStatements().size(),
+                        recording.getLoads(),
+                        recording.getFlushes(),
+                        budget,
+                        BASELINES.containsKey(endpoint) ? "diff with its baseline" : "no baseline yet",
+                        SqlBudgetFilter.diff(BASELINES.get(endpoint), recording.getStatements()))
+                .isTrue();
+
+        BASELINES.putIfAbsent(endpoint, List.copyOf(recording.getStatements()));
+
+        EXERCISED.add(endpoint);
+
+        return result;
+    }
+
+    /**
+     * The tokens of a logged in user.
+     *
+     * @param accessToken   the access token
+     * @param refreshCookie the cookie carrying the refresh token
+     */
+    private record Session(String accessToken, Cookie refreshCookie) {
+
+        String bearer() {
+            return "Bearer " + accessToken;
+        }
+    }
+}
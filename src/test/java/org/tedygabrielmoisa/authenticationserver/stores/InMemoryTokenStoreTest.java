@@ -0,0 +1,23 @@
+package org.tedygabrielmoisa.authenticationserver.stores;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the {@link TokenStore} contract against the {@link InMemoryTokenStore}.
+ */
+class InMemoryTokenStoreTest extends TokenStoreContractTest {
+
+    private final AtomicInteger users = new AtomicInteger();
+
+    @Override
+    protected TokenStore emptyStore() {
+        return new InMemoryTokenStore(4, new SimpleMeterRegistry());
+    }
+
+    @Override
+    protected Integer newUser() {
+        return users.incrementAndGet();
+    }
+}
@@ -0,0 +1,51 @@
+package org.tedygabrielmoisa.authenticationserver.stores;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.tedygabrielmoisa.authenticationserver.entities.User;
+import org.tedygabrielmoisa.authenticationserver.repositories.TokenRepository;
+import org.tedygabrielmoisa.authenticationserver.repositories.UserRepository;
+
+import java.util.UUID;
+
+/**
+ * Runs the {@link TokenStore} contract against the {@link JpaTokenStore}, on an embedded database of its own.
+ * Every store call commits on its own, as in production, so that concurrent rotations really compete for the row.
+ */
+@DataJpaTest
+@ActiveProfiles("test")
+@Import(JpaTokenStore.class)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestPropertySource(properties = "spring.datasource.url=jdbc:h2:mem:token-store;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1")
+class JpaTokenStoreTest extends TokenStoreContractTest {
+
+    @Autowired
+    private JpaTokenStore jpaTokenStore;
+
+    @Autowired
+    private TokenRepository tokenRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Override
+    protected TokenStore emptyStore() {
+        tokenRepository.deleteAllInBatch();
+        return jpaTokenStore;
+    }
+
+    @Override
+    protected Integer newUser() {
+        return userRepository.save(User.builder()
+                .email(UUID.randomUUID() + "@example.com")
+                .passwordHash("unused")
+                .build()).getId();
+    }
+}
@@ -0,0 +1,248 @@
+package org.tedygabrielmoisa.authenticationserver.stores;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.tedygabrielmoisa.authenticationserver.services.VerifiedToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The behaviour every {@link TokenStore} must share, run against each implementation by a subclass.
+ * <p>
+ * A token that is revoked without being rotated may be dropped or kept as revoked, so such tokens are only required
+ * to no longer be valid.
+ */
+abstract class TokenStoreContractTest {
+
+    private static final long LONGEVITY = 3600;
+
+    private TokenStore store;
+
+    /**
+     * Provides an empty store.
+     *
+     * @return the store under test
+     */
+    protected abstract TokenStore emptyStore();
+
+    /**
+     * Provides a user the tokens can belong to.
+     *
+     * @return the identifier of the user
+     */
+    protected abstract Integer newUser();
+
+    @BeforeEach
+    void setUp() {
+        store = emptyStore();
+    }
+
+    @Test
+    void findsSavedToken() {
+        Integer userId = newUser();
+        VerifiedToken token = mint(now() + LONGEVITY);
+        StoredToken issued = StoredToken.issue(token, userId);
+
+        store.save(issued);
+
+        StoredToken found = store.find(token.getToken()).orElseThrow();
+        assertThat(found.getTokenHash()).isEqualTo(issued.getTokenHash());
+        assertThat(found.getUserId()).isEqualTo(userId);
+        assertThat(found.getFamilyId()).isEqualTo(issued.getFamilyId());
+        assertThat(found.getExpiresAt()).isEqualTo(token.getExpiresAt());
+        assertThat(found.isValid(now())).isTrue();
+        assertThat(found.isRotated()).isFalse();
+    }
+
+    @Test
+    void doesNotFindUnknownToken() {
+        assertThat(store.find(mint(now() + LONGEVITY).getToken())).isEmpty();
+    }
+
+    @Test
+    void revokesTokenOnce() {
+        String token = issue(newUser(), now() + LONGEVITY);
+
+        assertThat(store.revoke(token)).isTrue();
+        assertThat(store.revoke(token)).isFalse();
+        assertNotValid(token);
+    }
+
+    @Test
+    void revokesEveryTokenOfUserOnly() {
+        Integer userId = newUser();
+        Integer otherUserId = newUser();
+        String first = issue(userId, now() + LONGEVITY);
+        String second = issue(userId, now() + LONGEVITY);
+        String other = issue(otherUserId, now() + LONGEVITY);
+
+        assertThat(store.revokeByUser(userId)).isEqualTo(2);
+        assertThat(store.revokeByUser(userId)).isZero();
+        assertNotValid(first);
+        assertNotValid(second);
+        assertThat(store.find(other).orElseThrow().isValid(now())).isTrue();
+    }
+
+    @Test
+    void rotatesIntoSuccessorOfSameUserAndFamily() {
+        Integer userId = newUser();
+        VerifiedToken token = mint(now() + LONGEVITY);
+        StoredToken issued = StoredToken.issue(token, userId);
+        VerifiedToken successor = mint(now() + LONGEVITY);
+
+        store.save(issued);
+        long before = now();
+
+        assertThat(store.rotate(token.getToken(), successor)).isTrue();
+
+        StoredToken rotated = store.find(token.getToken()).orElseThrow();
+        assertThat(rotated.isRotated()).isTrue();
+        assertThat(rotated.isValid(now())).isFalse();
+        assertThat(rotated.getRotatedAt()).isBetween(before, now());
+        assertThat(rotated.isRecentlyRotated(now(), 5)).isTrue();
+        assertThat(rotated.isRecentlyRotated(now() + 60, 5)).isFalse();
+
+        StoredToken next = store.find(successor.getToken()).orElseThrow();
+        assertThat(next.getUserId()).isEqualTo(userId);
+        assertThat(next.getFamilyId()).isEqualTo(issued.getFamilyId());
+        assertThat(next.getExpiresAt()).isEqualTo(successor.getExpiresAt());
+        assertThat(next.isValid(now())).isTrue();
+        assertThat(next.isRotated()).isFalse();
+    }
+
+    @Test
+    void rotatesTokenOnce() {
+        String token = issue(newUser(), now() + LONGEVITY);
+        VerifiedToken second = mint(now() + LONGEVITY);
+
+        assertThat(store.rotate(token, mint(now() + LONGEVITY))).isTrue();
+        assertThat(store.rotate(token, second)).isFalse();
+        assertThat(store.find(second.getToken())).isEmpty();
+    }
+
+    @Test
+    void doesNotRotateUnknownRevokedOrExpiredToken() {
+        Integer userId = newUser();
+        String revoked = issue(userId, now() + LONGEVITY);
+        String expired = issue(userId, now() - 10);
+        store.revoke(revoked);
+
+        assertThat(store.rotate(mint(now() + LONGEVITY).getToken(), mint(now() + LONGEVITY))).isFalse();
+        assertThat(store.rotate(revoked, mint(now() + LONGEVITY))).isFalse();
+        assertThat(store.rotate(expired, mint(now() + LONGEVITY))).isFalse();
+    }
+
+    @Test
+    void rotatesConcurrentlyPresentedTokenOnce() throws Exception {
+        String token = issue(newUser(), now() + LONGEVITY);
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<VerifiedToken> successors = new ArrayList<>();
+        List<Future<Boolean>> rotations = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                VerifiedToken successor = mint(now() + LONGEVITY);
+                successors.add(successor);
+
+                Callable<Boolean> rotation = () -> {
+                    start.await();
+                    return store.rotate(token, successor);
+                };
+                rotations.add(executor.submit(rotation));
+            }
+
+            start.countDown();
+
+            int rotated = 0;
+            for (Future<Boolean> rotation : rotations) {
+                if (rotation.get()) {
+                    rotated++;
+                }
+            }
+
+            assertThat(rotated).isEqualTo(1);
+            assertThat(successors.stream().filter(successor -> store.find(successor.getToken()).isPresent())).hasSize(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void revokesLiveTokensOfFamilyOnly() {
+        Integer userId = newUser();
+        VerifiedToken token = mint(now() + LONGEVITY);
+        StoredToken issued = StoredToken.issue(token, userId);
+        VerifiedToken successor = mint(now() + LONGEVITY);
+        String otherFamily = issue(userId, now() + LONGEVITY);
+
+        store.save(issued);
+        store.rotate(token.getToken(), successor);
+
+        assertThat(store.revokeFamily(issued.getFamilyId())).isEqualTo(1);
+        assertThat(store.revokeFamily(issued.getFamilyId())).isZero();
+        assertNotValid(successor.getToken());
+        assertThat(store.find(otherFamily).orElseThrow().isValid(now())).isTrue();
+    }
+
+    @Test
+    void purgesExpiredTokensWithinLimit() {
+        Integer userId = newUser();
+        long expiredAt = now() - LONGEVITY;
+        List<String> expired = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            expired.add(issue(userId, expiredAt));
+        }
+        String live = issue(userId, now() + LONGEVITY);
+
+        assertThat(store.purge(now(), 2)).isEqualTo(2);
+        assertThat(store.purge(now(), 2)).isEqualTo(2);
+        assertThat(store.purge(now(), 2)).isEqualTo(1);
+        assertThat(store.purge(now(), 2)).isZero();
+
+        expired.forEach(token -> assertThat(store.find(token)).isEmpty());
+        assertThat(store.find(live)).isPresent();
+    }
+
+    @Test
+    void keepsRotatedTokenUntilItExpires() {
+        String token = issue(newUser(), now() + LONGEVITY);
+        store.rotate(token, mint(now() + LONGEVITY));
+
+        store.purge(now(), 100);
+
+        assertThat(store.find(token).orElseThrow().isRotated()).isTrue();
+    }
+
+    private String issue(Integer userId, long expiresAt) {
+        VerifiedToken token = mint(expiresAt);
+        store.save(StoredToken.issue(token, userId));
+        return token.getToken();
+    }
+
+    private void assertNotValid(String token) {
+        assertThat(store.find(token).map(stored -> stored.isValid(now())).orElse(false)).isFalse();
+    }
+
+    /**
+     * Creates a refresh token the stores can digest. Stores never parse the token, so it needs no signature.
+     */
+    private static VerifiedToken mint(long expiresAt) {
+        return new VerifiedToken("refresh." + UUID.randomUUID(), "user@example.com", expiresAt - LONGEVITY, expiresAt, 0);
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+}